@@ -0,0 +1,75 @@
+package org.example.program10;
+
+/**
+ * This class represents a self-balancing AVL tree.
+ * It has the same public API as BinarySearchTree, but after every insertion or removal
+ * the heights of the two subtrees of any node differ by at most one.
+ * This keeps the depth of the tree, and so the cost of add, remove, search and contains, at O(log n)
+ * regardless of the order in which items are inserted (for example a file already sorted by key).
+ *
+ * @param <ItemType> the type of the data to be stored in the tree
+ */
+public class AVLTree<ItemType extends Comparable<ItemType>> extends BinarySearchTree<ItemType> {
+
+    /**
+     * An AVL tree rebalances after every change, so values may be added one at a time.
+     *
+     * @return true.
+     */
+    @Override
+    protected boolean isSelfBalancing() {
+        return true;
+    }
+
+    /**
+     * Restores the AVL balance condition at a node whose children have just changed.
+     * Applies a single or double rotation when the subtrees differ in height by more than one.
+     *
+     * @param bTree The subtree whose children have just changed.
+     * @return The root of the rebalanced subtree.
+     */
+    @Override
+    protected Node balance(Node bTree) {
+        update(bTree);
+        int balance = balanceFactor(bTree);
+
+        if (balance > 1) {
+            // Left heavy, a left-right case needs the left child rotated first
+            if (balanceFactor(bTree.left) < 0)
+                bTree.left = rotateLeft(bTree.left);
+            return rotateRight(bTree);
+        }
+
+        if (balance < -1) {
+            // Right heavy, a right-left case needs the right child rotated first
+            if (balanceFactor(bTree.right) > 0)
+                bTree.right = rotateRight(bTree.right);
+            return rotateLeft(bTree);
+        }
+
+        return bTree;
+    }
+
+    /**
+     * Checks the invariants of a node, including that its subtrees differ in height by at most one.
+     *
+     * @param tree The node to check.
+     * @throws IllegalStateException if an invariant does not hold
+     */
+    @Override
+    protected void checkNode(Node tree) {
+        super.checkNode(tree);
+        if (Math.abs(balanceFactor(tree)) > 1)
+            throw new IllegalStateException("Unbalanced node " + tree.value);
+    }
+
+    /**
+     * Gets the balance factor of a node, the height of its left subtree minus the height of its right subtree.
+     *
+     * @param tree The node.
+     * @return The balance factor of the node.
+     */
+    private int balanceFactor(Node tree) {
+        return height(tree.left) - height(tree.right);
+    }
+}
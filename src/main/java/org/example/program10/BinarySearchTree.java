@@ -1,23 +1,96 @@
 package org.example.program10;
 
+import java.io.BufferedWriter;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StreamCorruptedException;
+import java.io.Writer;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.ConcurrentModificationException;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Spliterator;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * This class represents a Binary Search Tree (BST) that stores data of a generic type.
  * The type must extend Comparable, as the BST uses the compareTo method to order the nodes.
  * The BST supports standard operations such as add, remove, contains, and size.
- * It also supports tree traversals (in-order, pre-order, post-order), and other operations like getting the depth of the tree.
+ * It also supports tree traversals (in-order, pre-order, post-order) that pass each value to a Consumer,
+ * writing the values to an Appendable, and other operations like getting the depth of the tree.
+ * The tree can be written with its exact shape and read back in linear time without comparing any values.
+ * Every operation is iterative, so the depth of the tree is never limited by the size of the thread stack.
+ * The tree is Iterable in order and can be streamed, both lazily, using extra memory proportional to its depth.
+ * Lookups can also be made by a key extracted from the stored values, such as a String field,
+ * so a caller does not need to build a dummy value just to compare against.
+ * Values are unique: adding a value equal to one already in the tree leaves the tree unchanged.
+ * A snapshot of the tree can be taken in O(1). The snapshot and the tree then share all their nodes,
+ * and each later add or remove copies only the nodes on its path (path copying),
+ * so every snapshot stays unchanged at a cost of O(log n) memory per change in a balanced tree.
  *
  * @param <ItemType> the type of the data to be stored in the BST
  */
-public class BinarySearchTree<ItemType extends Comparable<ItemType>> {
+public class BinarySearchTree<ItemType extends Comparable<ItemType>> implements Iterable<ItemType>, Cloneable {
+
+    /**
+     * The source of epochs, which identify the tree allowed to change a node in place.
+     */
+    private static final AtomicInteger EPOCHS = new AtomicInteger();
+
+    /**
+     * The flags written by writeShape for a node with a left and with a right child.
+     */
+    private static final int HAS_LEFT = 1, HAS_RIGHT = 2;
 
     /**
      * The root of the binary search tree.
      */
     private Node root;
 
+    /**
+     * The nodes visited on the way down during the current add or remove, from the root.
+     * Reused between operations so a descent does not allocate, and by subclasses for their own descents.
+     */
+    protected Node[] path = newNodeArray(32);
+
+    /**
+     * For each node in the path, whether the descent continued into its left child.
+     */
+    protected boolean[] wentLeft = new boolean[32];
+
+    /**
+     * The number of nodes on the path after the last call to descend.
+     */
+    private int pathDepth;
+
+    /**
+     * The number of structural changes made to the tree, so iterators can detect concurrent modification.
+     */
+    private int modCount;
+
+    /**
+     * The epoch of this tree. Nodes created with the same epoch belong to this tree alone and are changed in place,
+     * any other node may be shared with a snapshot and is copied before it is changed.
+     */
+    private int epoch = EPOCHS.incrementAndGet();
+
     /**
      * Checks if the binary tree is empty.
      *
@@ -40,360 +113,1816 @@ public class BinarySearchTree<ItemType extends Comparable<ItemType>> {
      * Adds a new item to the tree.
      *
      * @param newItem The value to add to the tree.
-     * @return true if the item was added successfully
+     * @return true if the item was added successfully, false if an equal item is already in the tree
      */
     public boolean add(ItemType newItem) {
-        root = add(newItem, root);
-        return true;
+        return putIfAbsent(newItem) == null;
+    }
+
+    /**
+     * Adds an item to the tree unless an equal item is already in it, in a single descent.
+     *
+     * @param newItem The value to add to the tree.
+     * @return The equal item already in the tree, or null if newItem was added.
+     */
+    public ItemType putIfAbsent(ItemType newItem) {
+        Node existing = descend(newItem, Function.identity());
+        if (existing != null) {
+            clearPath(pathDepth);
+            return existing.value;
+        }
+
+        retrace(pathDepth, new Node(newItem));
+        return null;
+    }
+
+    /**
+     * Adds an item to the tree, replacing the equal item if there is one, in a single descent.
+     *
+     * @param newItem The value to add to the tree.
+     * @return The item that was replaced, or null if newItem was added.
+     */
+    public ItemType upsert(ItemType newItem) {
+        Node existing = descend(newItem, Function.identity());
+        if (existing != null) {
+            ItemType previous = existing.value;
+            replaceValue(existing, pathDepth, newItem);
+            return previous;
+        }
+
+        retrace(pathDepth, new Node(newItem));
+        return null;
     }
 
     /**
-     * The add method adds a value to the search tree.
+     * Computes a new value for a key in a single descent.
+     * The function is given the key and the current value, or null if there is none.
+     * If it returns null the current value is removed, otherwise its result is stored under the key.
      *
-     * @param bstree The root of the binary search tree.
-     * @return The root of the resulting binary search tree.
-     * @newItem the value to add.
+     * @param key       The key to compute a value for.
+     * @param keyOf     The function extracting the key from a value, consistent with the ordering of the tree.
+     * @param remapping The function computing the new value.
+     * @param <K>       The type of the key.
+     * @return The new value, or null if there is none.
+     * @throws IllegalArgumentException if the computed value does not have the given key
      */
-    private Node add(ItemType newData, Node bstree) {
-        if (bstree == null)
-            return new Node(newData);
+    public <K extends Comparable<? super K>> ItemType compute(K key, Function<? super ItemType, ? extends K> keyOf,
+                                                             BiFunction<? super K, ? super ItemType, ? extends ItemType> remapping) {
+        Node existing = descend(key, keyOf);
+        int depth = pathDepth;
+        ItemType newValue;
+        try {
+            newValue = remapping.apply(key, existing != null ? existing.value : null);
+            if (newValue != null && key.compareTo(keyOf.apply(newValue)) != 0)
+                throw new IllegalArgumentException("The computed value does not have the key " + key);
+        } catch (RuntimeException e) {
+            clearPath(depth);
+            throw e;
+        }
 
-        if (newData.compareTo(bstree.value) < 0) {
-            bstree.left = add(newData, bstree.left);
+        if (existing == null) {
+            if (newValue == null)
+                clearPath(depth);
+            else
+                retrace(depth, new Node(newValue));
+        } else if (newValue == null) {
+            unlink(existing, depth);
         } else {
-            bstree.right = add(newData, bstree.right);
+            replaceValue(existing, depth, newValue);
+        }
+        return newValue;
+    }
+
+    /**
+     * The replaceValue method stores a new value in a node whose ancestors are on the path.
+     * If the node is shared with a snapshot, a copy takes the value and the path is copied down to it.
+     *
+     * @param existing The node to change.
+     * @param depth    The number of ancestors of the node on the path.
+     * @param newValue The new value, which has the same key as the old one.
+     */
+    private void replaceValue(Node existing, int depth, ItemType newValue) {
+        Node bstree = writable(existing);
+        bstree.value = newValue;
+        if (bstree == existing)
+            clearPath(depth);
+        else
+            retrace(depth, bstree);
+    }
+
+    /**
+     * The descend method walks down from the root towards a key, recording the nodes passed on the path.
+     * If the key is found the path holds its ancestors, otherwise the last node on the path is
+     * the parent of the empty spot where the key belongs.
+     * The number of nodes on the path is left in pathDepth.
+     *
+     * @param key   The key to look for.
+     * @param keyOf The function extracting the key from a value.
+     * @param <K>   The type of the key.
+     * @return The node holding the key, or null if it is not in the tree.
+     */
+    private <K extends Comparable<? super K>> Node descend(K key, Function<? super ItemType, ? extends K> keyOf) {
+        Node bstree = root;
+        int depth = 0;
+
+        while (bstree != null) {
+            int comparison = key.compareTo(keyOf.apply(bstree.value));
+            if (comparison == 0)
+                break;
+            push(depth++, bstree, comparison < 0);
+            bstree = comparison < 0 ? bstree.left : bstree.right;
         }
+
+        pathDepth = depth;
         return bstree;
     }
 
     /**
-     * Removes a value from the binary search tree.
+     * Replaces the contents of the tree with the given items, building a tree of minimum height in one linear pass.
+     * Items that are already in ascending order, such as a data file sorted by key, are used as they are.
+     * Otherwise they are sorted first, making the build O(n log n).
+     * Of several equal items only the last one is kept.
      *
-     * @param removalTarget The value to remove.
-     * @return true if removalTarget was removed, false if removalTarget not found.
+     * @param items The items to build the tree from.
      */
-    public boolean remove(ItemType removalTarget) {
-        RemovalResult result = remove(root, removalTarget);
-        if (result == null)
-            return false;
-        else {
-            root = result.tree;
-            return true;
+    public void build(Collection<? extends ItemType> items) {
+        Object[] values = items.toArray();
+        if (!isSorted(values))
+            Arrays.sort(values);
+        root = build(values, 0, removeDuplicates(values));
+        modCount++;
+    }
+
+    /**
+     * Adds every item of a batch that is not already in the tree, leaving equal items already in it unchanged.
+     * The batch is sorted once. A batch that is large compared to the tree is merged with the in-order walk
+     * of the tree in one pass, and the tree rebuilt at minimum height, in O(n + m log m) for n values and m items.
+     * A small batch is added one item at a time instead, when that is cheaper and the tree balances itself;
+     * an empty tree, or a tree that does not balance itself, is always merged, since adding sorted items
+     * one at a time would make it a chain.
+     * Of several equal items in the batch only the last one is added.
+     *
+     * @param items The items to add.
+     * @return true if the tree changed, false if every item was already in it.
+     */
+    public boolean addAll(Collection<? extends ItemType> items) {
+        return addAll(items, value -> {
+        });
+    }
+
+    /**
+     * Adds every item of a batch that is not already in the tree, in the same way as addAll,
+     * and tells a listener which items were added, so that another structure can follow in O(m) rather than O(n).
+     *
+     * @param items The items to add.
+     * @param added The listener called with each item added, after the tree has changed.
+     * @return true if the tree changed, false if every item was already in it.
+     */
+    @SuppressWarnings("unchecked")
+    public boolean addAll(Collection<? extends ItemType> items, Consumer<? super ItemType> added) {
+        Object[] batch = items.toArray();
+        Arrays.sort(batch);
+        int count = removeDuplicates(batch);
+
+        if (isSelfBalancing() && size() > 0 && !mergeIsCheaper(count)) {
+            boolean changed = false;
+            for (int i = 0; i < count; i++) {
+                if (add((ItemType) batch[i])) {
+                    added.accept((ItemType) batch[i]);
+                    changed = true;
+                }
+            }
+            return changed;
+        }
+
+        Object[] merged = new Object[size() + count];
+        int mergedCount = 0;
+        // The batch items that are new are moved to the front of the batch as they are merged
+        int newCount = 0;
+        int next = 0;
+        for (ItemType value : this) {
+            while (next < count && ((ItemType) batch[next]).compareTo(value) < 0)
+                merged[mergedCount++] = batch[newCount++] = batch[next++];
+            if (next < count && ((ItemType) batch[next]).compareTo(value) == 0)
+                next++;
+            merged[mergedCount++] = value;
+        }
+        while (next < count)
+            merged[mergedCount++] = batch[newCount++] = batch[next++];
+
+        boolean changed = rebuild(merged, mergedCount);
+        for (int i = 0; i < newCount; i++) {
+            added.accept((ItemType) batch[i]);
         }
+        return changed;
     }
 
     /**
-     * The remove method removes a value from the binary search tree.
+     * Removes every value equal to an item of a batch.
+     * The cost is the same as for addAll.
      *
-     * @param deleteValue The value to remove.
-     * @param bTree       The binary search tree.
-     * @return The result of removing the value.
+     * @param items The items to remove.
+     * @return true if the tree changed, false if no item was in it.
      */
-    private RemovalResult remove(Node bTree, ItemType deleteValue) {
-        if (bTree == null)
-            return null;
+    public boolean removeAll(Collection<? extends ItemType> items) {
+        return removeAllByKey(items, Function.identity());
+    }
 
-        if (deleteValue.compareTo(bTree.value) < 0) {
-            RemovalResult result = remove(bTree.left, deleteValue);
-            if (result == null)
-                return null;
-            bTree.left = result.tree;
-            result.tree = bTree;
-            return result;
+    /**
+     * Removes every value whose key is in a batch of keys.
+     * The keys are sorted once. A batch that is large compared to the tree is merged with the in-order walk
+     * of the tree in one pass, and the tree rebuilt at minimum height, in O(n + m log m) for n values and m keys.
+     * A small batch is removed one key at a time instead, when that is cheaper.
+     *
+     * @param keys  The keys of the values to remove.
+     * @param keyOf The function extracting the key from a value, consistent with the ordering of the tree.
+     * @param <K>   The type of the key.
+     * @return true if the tree changed, false if no key was in it.
+     */
+    public <K extends Comparable<? super K>> boolean removeAllByKey(Collection<? extends K> keys,
+                                                                   Function<? super ItemType, ? extends K> keyOf) {
+        return removeAllByKey(keys, keyOf, value -> {
+        });
+    }
+
+    /**
+     * Removes every value whose key is in a batch of keys, in the same way as removeAllByKey,
+     * and tells a listener which values were removed, so that another structure can follow in O(m) rather than O(n).
+     *
+     * @param keys    The keys of the values to remove.
+     * @param keyOf   The function extracting the key from a value, consistent with the ordering of the tree.
+     * @param removed The listener called with each value removed, after the tree has changed.
+     * @param <K>     The type of the key.
+     * @return true if the tree changed, false if no key was in it.
+     */
+    @SuppressWarnings("unchecked")
+    public <K extends Comparable<? super K>> boolean removeAllByKey(Collection<? extends K> keys,
+                                                                   Function<? super ItemType, ? extends K> keyOf,
+                                                                   Consumer<? super ItemType> removed) {
+        Object[] batch = keys.toArray();
+        Arrays.sort(batch);
+        int count = batch.length;
+
+        if (!mergeIsCheaper(count)) {
+            boolean changed = false;
+            for (int i = 0; i < count; i++) {
+                ItemType value = removeByKey((K) batch[i], keyOf);
+                if (value != null) {
+                    removed.accept(value);
+                    changed = true;
+                }
+            }
+            return changed;
         }
 
-        if (deleteValue.compareTo(bTree.value) > 0) {
-            RemovalResult result = remove(bTree.right, deleteValue);
-            if (result == null)
-                return null;
-            bTree.right = result.tree;
-            result.tree = bTree;
-            return result;
+        Object[] merged = new Object[size()];
+        int mergedCount = 0;
+        // The values removed replace the keys at the front of the batch, which are no longer needed
+        int removedCount = 0;
+        int next = 0;
+        for (ItemType value : this) {
+            K key = keyOf.apply(value);
+            while (next < count && ((K) batch[next]).compareTo(key) < 0)
+                next++;
+            if (next == count || ((K) batch[next]).compareTo(key) != 0)
+                merged[mergedCount++] = value;
+            else {
+                // Keys in the tree are unique, so the matched key is used up and its slot can be reused
+                next++;
+                batch[removedCount++] = value;
+            }
         }
 
-        if (bTree.right == null && bTree.left == null)
-            return new RemovalResult(bTree, null);
+        boolean changed = rebuild(merged, mergedCount);
+        for (int i = 0; i < removedCount; i++) {
+            removed.accept((ItemType) batch[i]);
+        }
+        return changed;
+    }
 
-        if (bTree.right != null && bTree.left != null) {
-            RemovalResult remResult = removeLargest(bTree.left);
-            Node newRoot = remResult.node;
-            newRoot.left = remResult.tree;
-            newRoot.right = bTree.right;
+    /**
+     * Removes every value matching a predicate in one in-order pass, then relinks the remaining nodes
+     * into a tree of minimum height, in O(n) overall.
+     * The remaining nodes are reused rather than copied, so removing values creates no garbage per removed value.
+     * If the predicate throws an exception the tree is left unchanged.
+     *
+     * @param filter The predicate returning true for the values to remove.
+     * @return true if any value was removed.
+     */
+    public boolean removeIf(Predicate<? super ItemType> filter) {
+        Node[] survivors = newNodeArray(size());
+        int count = 0;
 
-            bTree.left = null;
-            bTree.right = null;
-            return new RemovalResult(bTree, newRoot);
+        Deque<Node> stack = new ArrayDeque<>();
+        Node btree = root;
+        while (btree != null || !stack.isEmpty()) {
+            while (btree != null) {
+                stack.push(btree);
+                btree = btree.left;
+            }
+            btree = stack.pop();
+            if (!filter.test(btree.value))
+                survivors[count++] = btree;
+            btree = btree.right;
         }
 
-        Node tree;
-        if (bTree.left != null)
-            tree = bTree.left;
-        else
-            tree = bTree.right;
+        if (count == survivors.length)
+            return false;
+        root = relink(survivors, 0, count);
+        modCount++;
+        return true;
+    }
 
-        bTree.left = null;
-        bTree.right = null;
-        return new RemovalResult(bTree, tree);
+    /**
+     * Removes every value not matching a predicate, in the same way as removeIf.
+     *
+     * @param filter The predicate returning true for the values to keep.
+     * @return true if any value was removed.
+     */
+    public boolean retainIf(Predicate<? super ItemType> filter) {
+        return removeIf(filter.negate());
     }
 
     /**
-     * The removeLargest method removes the largest node from a binary search
-     * tree.
+     * The relink method links a sorted range of existing nodes into a subtree of minimum height,
+     * using the middle node as the root and each half as a subtree.
+     * Nodes shared with a snapshot are copied before they are relinked.
      *
-     * @param bTree The binary search tree.
-     * @return The result of removing the largest node.
+     * @param nodes The nodes in ascending order of their values.
+     * @param from  The first index of the range, inclusive.
+     * @param to    The last index of the range, exclusive.
+     * @return The root of the relinked subtree.
      */
-    private RemovalResult removeLargest(Node bTree) {
-        if (bTree == null)
+    private Node relink(Node[] nodes, int from, int to) {
+        if (from >= to)
             return null;
 
-        if (bTree.right == null) {
-            // Root is the largest node
-            Node tree = bTree.left;
-            bTree.left = null;
-            return new RemovalResult(bTree, tree);
-        } else {
-            // Remove the largest node from the right subtree.
-            RemovalResult remResult = removeLargest(bTree.right);
-            bTree.right = remResult.tree;
-            remResult.tree = bTree;
-            return remResult;
+        int mid = (from + to) >>> 1;
+        Node bstree = writable(nodes[mid]);
+        bstree.left = relink(nodes, from, mid);
+        bstree.right = relink(nodes, mid + 1, to);
+        update(bstree);
+        return bstree;
+    }
+
+    /**
+     * Tells whether the tree keeps its depth logarithmic as values are added one at a time.
+     * Trees that do not are given batches of values by merging and rebuilding instead.
+     *
+     * @return true if the tree balances itself, false for a plain binary search tree.
+     */
+    protected boolean isSelfBalancing() {
+        return false;
+    }
+
+    /**
+     * Decides whether a batch is applied by merging it with the whole tree rather than one item at a time.
+     * Merging costs about n + m steps, while m separate descents cost about m log n steps.
+     *
+     * @param count The number of items in the batch.
+     * @return true if merging is expected to be cheaper.
+     */
+    private boolean mergeIsCheaper(int count) {
+        int size = size();
+        int depth = 32 - Integer.numberOfLeadingZeros(size);
+        return (long) count * depth >= (long) size + count;
+    }
+
+    /**
+     * Replaces the contents of the tree with a merged batch, unless the merge changed nothing.
+     *
+     * @param values The values of the new tree, in ascending order.
+     * @param count  The number of values at the start of the array.
+     * @return true if the tree changed.
+     */
+    private boolean rebuild(Object[] values, int count) {
+        boolean changed = count != size();
+        if (changed) {
+            root = build(values, 0, count);
+            modCount++;
         }
+        return changed;
     }
 
     /**
-     * Checks to see if a value is in the binary tree.
+     * Checks whether an array of items is in ascending order.
      *
-     * @param searchTarget The value to check for.
-     * @return true if searchTarget is in the tree, false otherwise.
+     * @param values The items to check.
+     * @return true if every item is no greater than the next, false otherwise.
      */
-    public boolean contains(ItemType searchTarget) {
-        return contains(searchTarget, root);
+    @SuppressWarnings("unchecked")
+    private boolean isSorted(Object[] values) {
+        for (int i = 1; i < values.length; i++) {
+            if (((ItemType) values[i - 1]).compareTo((ItemType) values[i]) > 0)
+                return false;
+        }
+        return true;
     }
 
     /**
-     * The contains method checks to see if a value is in the binary tree.
+     * Removes runs of equal items from a sorted array, keeping the last item of each run.
      *
-     * @param searchItem The value to check for.
-     * @param bstree     The binary search tree.
-     * @return true if searchItem is in the tree, false otherwise.
+     * @param values The sorted items, compacted in place.
+     * @return The number of unique items now at the start of the array.
      */
-    private boolean contains(ItemType searchItem, Node bstree) {
-        if (bstree == null)
-            return false;
+    @SuppressWarnings("unchecked")
+    private int removeDuplicates(Object[] values) {
+        int count = 0;
+        for (int i = 0; i < values.length; i++) {
+            if (count > 0 && ((ItemType) values[count - 1]).compareTo((ItemType) values[i]) == 0)
+                count--;
+            values[count++] = values[i];
+        }
+        Arrays.fill(values, count, values.length, null);
+        return count;
+    }
 
-        if (searchItem.compareTo(bstree.value) == 0)
-            return true;
-        if (searchItem.compareTo(bstree.value) < 0)
-            return contains(searchItem, bstree.left);
-        else
-            return contains(searchItem, bstree.right);
+    /**
+     * The build method builds a tree of minimum height from a sorted range of items,
+     * using the middle item as the root and each half as a subtree.
+     * The recursion only goes as deep as the resulting tree, which is about log2 of the number of items.
+     *
+     * @param values The sorted items.
+     * @param from   The first index of the range, inclusive.
+     * @param to     The last index of the range, exclusive.
+     * @return The root of the built subtree.
+     */
+    @SuppressWarnings("unchecked")
+    private Node build(Object[] values, int from, int to) {
+        if (from >= to)
+            return null;
+
+        int mid = (from + to) >>> 1;
+        Node bstree = new Node((ItemType) values[mid], build(values, from, mid), build(values, mid + 1, to));
+        update(bstree);
+        return bstree;
     }
 
     /**
-     * Searches for a value in the binary tree.
+     * Removes a value from the binary search tree.
      *
-     * @param searchTarget The value to search for.
-     * @return The value if found, null otherwise.
+     * @param removalTarget The value to remove.
+     * @return true if removalTarget was removed, false if removalTarget not found.
      */
-    public ItemType search(ItemType searchTarget) {
-        Node resultNode = search(root, searchTarget);
-        return resultNode != null ? resultNode.value : null;
+    public boolean remove(ItemType removalTarget) {
+        return removeByKey(removalTarget, Function.identity()) != null;
     }
 
     /**
-     * The search method searches for a value in the binary tree.
+     * Removes the value with the given key from the binary search tree.
      *
-     * @param searchTarget The value to search for.
-     * @param bstree       The binary search tree.
-     * @return The node containing the value if found, null otherwise.
+     * @param key   The key of the value to remove.
+     * @param keyOf The function extracting the key from a value, consistent with the ordering of the tree.
+     * @param <K>   The type of the key.
+     * @return The value removed, or null if no value has the key.
      */
-    private Node search(Node bstree, ItemType searchTarget) {
-        if (bstree == null) {
+    public <K extends Comparable<? super K>> ItemType removeByKey(K key, Function<? super ItemType, ? extends K> keyOf) {
+        Node bTree = descend(key, keyOf);
+        if (bTree == null) {
+            clearPath(pathDepth);
             return null;
         }
 
-        if (searchTarget.compareTo(bstree.value) == 0) {
-            return bstree;
-        } else if (searchTarget.compareTo(bstree.value) < 0) {
-            return search(bstree.left, searchTarget);
+        ItemType removed = bTree.value;
+        unlink(bTree, pathDepth);
+        return removed;
+    }
+
+    /**
+     * The unlink method removes a node whose ancestors are already on the path.
+     * A node with two children takes the value of the largest node in its left subtree,
+     * and that node, which has no right child, is unlinked instead.
+     *
+     * @param bTree The node to remove.
+     * @param depth The number of ancestors of bTree on the path.
+     */
+    private void unlink(Node bTree, int depth) {
+        Node replacement;
+
+        if (bTree.left != null && bTree.right != null) {
+            // The node keeps its place but takes a new value, so it must not be shared
+            bTree = writable(bTree);
+            push(depth++, bTree, true);
+            Node largest = bTree.left;
+            while (largest.right != null) {
+                push(depth++, largest, false);
+                largest = largest.right;
+            }
+            bTree.value = largest.value;
+            replacement = largest.left;
+        } else if (bTree.left != null) {
+            replacement = bTree.left;
         } else {
-            return search(bstree.right, searchTarget);
+            replacement = bTree.right;
         }
+
+        retrace(depth, replacement);
     }
 
     /**
-     * Counts the number of elements in the binary search tree.
+     * Creates an array of nodes. An array of a generic type cannot be created directly,
+     * so this is the one place an array of the raw node type is created and cast.
      *
-     * @return The number of nodes in the tree.
+     * @param length The length of the array.
+     * @return The new array.
      */
-    public int size() {
-        return count(root);
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Node[] newNodeArray(int length) {
+        return (Node[]) new BinarySearchTree.Node[length];
     }
 
     /**
-     * The count method counts the number of nodes in the binary search tree.
+     * Records a node on the path, growing the path if it is full.
      *
-     * @param tree The binary search tree.
-     * @return The number of nodes in the tree.
+     * @param depth The position of the node on the path.
+     * @param node  The node.
+     * @param left  Whether the descent continues into the left child of the node.
      */
-    int count(Node tree) {
-        if (tree == null)
-            return 0;
-        else
-            return count(tree.left) + count(tree.right) + 1;
+    protected void push(int depth, Node node, boolean left) {
+        if (depth == path.length) {
+            path = Arrays.copyOf(path, depth * 2);
+            wentLeft = Arrays.copyOf(wentLeft, depth * 2);
+        }
+        path[depth] = node;
+        wentLeft[depth] = left;
     }
 
     /**
-     * Gets the depth of the tree.
+     * The retrace method walks back up the path after an insertion or removal.
+     * Each ancestor is relinked to its new child subtree and passed to balance,
+     * and the result becomes the new root of the tree.
      *
-     * @return The depth of the tree.
+     * @param depth   The number of nodes on the path.
+     * @param subtree The subtree replacing the child of the deepest node on the path.
      */
-    public int treeDepth() {
-        return getDepth(root) - 1;
+    private void retrace(int depth, Node subtree) {
+        for (int i = depth - 1; i >= 0; i--) {
+            Node parent = writable(path[i]);
+            path[i] = null;
+            if (wentLeft[i])
+                parent.left = subtree;
+            else
+                parent.right = subtree;
+            subtree = balance(parent);
+        }
+        root = subtree;
+        modCount++;
     }
 
     /**
-     * The getDepth method gets the depth of a binary tree.
+     * Forgets the nodes on the path so the tree does not keep removed nodes reachable.
      *
-     * @param tree The binary tree.
-     * @return The depth of the tree.
+     * @param depth The number of nodes on the path.
      */
-    private int getDepth(Node tree) {
-        if (tree == null)
-            return 0;
-        else {
-            int leftDepth = getDepth(tree.left);
-            int rightDepth = getDepth(tree.right);
+    private void clearPath(int depth) {
+        Arrays.fill(path, 0, depth, null);
+    }
 
-            if (leftDepth > rightDepth)
-                return leftDepth + 1;
-            else
-                return rightDepth + 1;
-        }
+    /**
+     * The balance method is called on every node along the path of an insertion or removal,
+     * from the bottom up, once its children have been relinked.
+     * A plain binary search tree never rebalances, so the node is only updated and returned unchanged.
+     * Self-balancing subclasses override this to restore their balance condition.
+     *
+     * @param bTree The subtree whose children have just changed.
+     * @return The root of the (possibly rotated) subtree.
+     */
+    protected Node balance(Node bTree) {
+        update(bTree);
+        return bTree;
     }
 
     /**
-     * Performs an in-order traversal of the tree.
+     * Replaces the root after a subclass has restructured the tree without changing its values,
+     * such as a splay tree moving a value it found to the root.
+     *
+     * @param newRoot The new root.
      */
-    public void traverseInOrder() {
-        System.out.println("IN-ORDER");
+    protected void setRoot(Node newRoot) {
+        root = newRoot;
+        modCount++;
+    }
 
-        inorder(root);
+    /**
+     * Gets a node that this tree may change in place: the node itself if it belongs to this tree,
+     * otherwise a copy of it, since it may be shared with a snapshot.
+     * The caller must link the copy in place of the original.
+     *
+     * @param tree The node to change.
+     * @return The node or its copy.
+     */
+    protected Node writable(Node tree) {
+        if (tree.epoch == epoch)
+            return tree;
 
-        System.out.println("\n\n");
+        Node copy = new Node(tree.value, tree.left, tree.right);
+        copy.height = tree.height;
+        copy.size = tree.size;
+        return copy;
     }
 
     /**
-     * Performs an in-order traversal of the tree.
+     * Takes a snapshot of the tree in O(1).
+     * The snapshot holds the values in the tree at this moment and is not affected by later changes to the tree,
+     * nor the tree by changes to the snapshot. Both share their nodes until one of them changes.
+     *
+     * @return A tree of the same type holding the same values.
      */
-    public void inorder(Node btree) {
-        if (btree != null) {
-            inorder(btree.left);
-            System.out.print(btree.value + " ");
-            inorder(btree.right);
+    @SuppressWarnings("unchecked")
+    public BinarySearchTree<ItemType> snapshot() {
+        BinarySearchTree<ItemType> copy;
+        try {
+            copy = (BinarySearchTree<ItemType>) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new AssertionError(e);
         }
+        copy.path = copy.newNodeArray(8);
+        copy.wentLeft = new boolean[8];
+        copy.modCount = 0;
+        copy.epoch = EPOCHS.incrementAndGet();
+
+        // From now on every node is shared, so this tree must copy the nodes it changes too
+        epoch = EPOCHS.incrementAndGet();
+        return copy;
     }
 
     /**
-     * Performs a pre-order traversal of the tree.
+     * Gets the union of this tree and another: every value in either tree.
+     * Where both trees hold equal values, the value from the other tree is kept.
+     * Neither tree is changed, and the result shares the nodes it can with both.
+     * The trees are split and joined recursively (join-based), and large halves are combined in parallel,
+     * so the cost is O(m log(n/m + 1)) for trees of m and n values instead of m separate insertions.
+     *
+     * @param other The other tree.
+     * @return A new tree of the same type as this one holding the union.
      */
-    public List<ItemType> inorderTraversal() {
-        List<ItemType> result = new ArrayList<>();
-        inorder(root, result);
+    public BinarySearchTree<ItemType> union(BinarySearchTree<ItemType> other) {
+        return combine(other, SetOperation.UNION);
+    }
+
+    /**
+     * Gets the intersection of this tree and another: the values of this tree that have an equal value in the other.
+     * Neither tree is changed. The cost is the same as for union.
+     *
+     * @param other The other tree.
+     * @return A new tree of the same type as this one holding the intersection.
+     */
+    public BinarySearchTree<ItemType> intersection(BinarySearchTree<ItemType> other) {
+        return combine(other, SetOperation.INTERSECTION);
+    }
+
+    /**
+     * Gets the difference of this tree and another: the values of this tree that have no equal value in the other.
+     * Neither tree is changed. The cost is the same as for union.
+     *
+     * @param other The other tree.
+     * @return A new tree of the same type as this one holding the difference.
+     */
+    public BinarySearchTree<ItemType> difference(BinarySearchTree<ItemType> other) {
+        return combine(other, SetOperation.DIFFERENCE);
+    }
+
+    /**
+     * Splits the tree at a key in O(log n), without changing it.
+     *
+     * @param key The value to split at.
+     * @return The values less than key, the value equal to key if there is one, and the values greater than key.
+     */
+    public Split<ItemType> split(ItemType key) {
+        BinarySearchTree<ItemType> less = snapshot();
+        BinarySearchTree<ItemType> greater = snapshot();
+        Parts parts = less.split(less.joinable(this), key);
+        less.root = parts.less;
+        greater.root = parts.greater;
+
+        // Nodes created by the split may be in either tree, so neither may change them in place
+        less.epoch = EPOCHS.incrementAndGet();
+        return new Split<>(less, parts.match, greater);
+    }
+
+    /**
+     * Combines this tree with another by a set operation.
+     *
+     * @param other     The other tree.
+     * @param operation The set operation.
+     * @return A new tree of the same type as this one holding the result.
+     */
+    private BinarySearchTree<ItemType> combine(BinarySearchTree<ItemType> other, SetOperation operation) {
+        BinarySearchTree<ItemType> result = snapshot();
+        result.root = result.new SetTask(operation, result.joinable(this), result.joinable(other)).invoke();
         return result;
     }
 
     /**
-     * Performs an in-order traversal of the tree.
+     * Gets the root of a tree ready to be split and joined by this tree.
+     * The tree may no longer change its nodes in place, since they are about to be shared with this tree.
+     * Joining keeps the AVL balance condition only if its inputs meet it, so a tree that does not,
+     * such as a plain tree built by inserting sorted input, is first rebuilt at minimum height in a linear pass.
+     *
+     * @param tree The tree.
+     * @return The root of the tree or of its rebuilt copy.
+     */
+    private Node joinable(BinarySearchTree<ItemType> tree) {
+        tree.epoch = EPOCHS.incrementAndGet();
+        if (tree instanceof AVLTree || isAVLBalanced(tree.root))
+            return tree.root;
+
+        Object[] values = tree.inorderTraversal().toArray();
+        return build(values, 0, values.length);
+    }
+
+    /**
+     * Checks whether every node of a subtree meets the AVL balance condition, from the heights kept in the nodes.
+     * A degenerate subtree fails at its root, so the check is only long for subtrees that are nearly balanced.
+     *
+     * @param tree The subtree.
+     * @return true if the heights of the children of every node differ by at most one.
+     */
+    private boolean isAVLBalanced(Node tree) {
+        Deque<Node> pending = new ArrayDeque<>();
+        if (tree != null)
+            pending.push(tree);
+        while (!pending.isEmpty()) {
+            Node node = pending.pop();
+            if (Math.abs(height(node.left) - height(node.right)) > 1)
+                return false;
+            if (node.left != null)
+                pending.push(node.left);
+            if (node.right != null)
+                pending.push(node.right);
+        }
+        return true;
+    }
+
+    /**
+     * The split method splits a subtree at a key into new subtrees of the smaller and greater values.
+     *
+     * @param tree The subtree.
+     * @param key  The value to split at.
+     * @return The parts of the subtree.
      */
-    private void inorder(Node btree, List<ItemType> result) {
-        if (btree != null) {
-            inorder(btree.left, result);
-            result.add(btree.value);
-            inorder(btree.right, result);
+    private Parts split(Node tree, ItemType key) {
+        if (tree == null)
+            return new Parts(null, null, null);
+
+        int comparison = key.compareTo(tree.value);
+        if (comparison == 0)
+            return new Parts(tree.left, tree.value, tree.right);
+        if (comparison < 0) {
+            Parts parts = split(tree.left, key);
+            parts.greater = join(parts.greater, tree.value, tree.right);
+            return parts;
         }
+        Parts parts = split(tree.right, key);
+        parts.less = join(tree.left, tree.value, parts.less);
+        return parts;
+    }
+
+    /**
+     * The splitLast method removes the largest value from a non-empty subtree.
+     *
+     * @param tree The subtree.
+     * @return The rest of the subtree as the less part, and the largest value as the match.
+     */
+    private Parts splitLast(Node tree) {
+        if (tree.right == null)
+            return new Parts(tree.left, tree.value, null);
+
+        Parts parts = splitLast(tree.right);
+        parts.less = join(tree.left, tree.value, parts.less);
+        return parts;
     }
 
     /**
-     * Performs a pre-order traversal of the tree.
+     * The join method joins two subtrees and a value between them into a balanced subtree, in O(difference in height).
+     * The taller subtree is followed down its inner side to a subtree of about the height of the other,
+     * where the value becomes a new node, and the path back up is rebuilt with rotations.
+     * The subtrees are not changed: the nodes on the path are new, and the rest are shared.
+     *
+     * @param left  The subtree of smaller values.
+     * @param value The value, greater than every value in left and less than every value in right.
+     * @param right The subtree of greater values.
+     * @return The joined subtree.
      */
-    public void traversePreOrder() {
-        System.out.println("PRE-ORDER");
+    private Node join(Node left, ItemType value, Node right) {
+        if (height(left) > height(right) + 1)
+            return joinRight(left, value, right);
+        if (height(right) > height(left) + 1)
+            return joinLeft(left, value, right);
+        return node(left, value, right);
+    }
 
-        preorder(root);
+    /**
+     * Joins a value and a shorter subtree onto the right side of a taller left subtree.
+     *
+     * @param left  The taller subtree of smaller values.
+     * @param value The value between them.
+     * @param right The shorter subtree of greater values.
+     * @return The joined subtree.
+     */
+    private Node joinRight(Node left, ItemType value, Node right) {
+        Node inner = left.right;
+        if (height(inner) <= height(right) + 1) {
+            Node joined = node(inner, value, right);
+            if (height(joined) <= height(left.left) + 1)
+                return node(left.left, left.value, joined);
+            return rotateLeft(node(left.left, left.value, rotateRight(joined)));
+        }
 
-        System.out.println("\n\n");
+        Node joined = joinRight(inner, value, right);
+        Node tree = node(left.left, left.value, joined);
+        return height(joined) <= height(left.left) + 1 ? tree : rotateLeft(tree);
     }
 
     /**
-     * Performs a pre-order traversal of the tree.
+     * Joins a value and a shorter subtree onto the left side of a taller right subtree.
+     *
+     * @param left  The shorter subtree of smaller values.
+     * @param value The value between them.
+     * @param right The taller subtree of greater values.
+     * @return The joined subtree.
      */
-    private void preorder(Node btree) {
-        if (btree != null) {
-            System.out.print(btree.value + " ");
-            preorder(btree.left);
-            preorder(btree.right);
+    private Node joinLeft(Node left, ItemType value, Node right) {
+        Node inner = right.left;
+        if (height(inner) <= height(left) + 1) {
+            Node joined = node(left, value, inner);
+            if (height(joined) <= height(right.right) + 1)
+                return node(joined, right.value, right.right);
+            return rotateRight(node(rotateLeft(joined), right.value, right.right));
         }
+
+        Node joined = joinLeft(left, value, inner);
+        Node tree = node(joined, right.value, right.right);
+        return height(joined) <= height(right.right) + 1 ? tree : rotateRight(tree);
     }
 
     /**
-     * Performs a post-order traversal of the tree.
+     * Joins two subtrees, every value in the first being less than every value in the second.
+     *
+     * @param left  The subtree of smaller values.
+     * @param right The subtree of greater values.
+     * @return The joined subtree.
      */
-    public void traversePostOrder() {
-        System.out.println("POST-ORDER");
+    private Node join(Node left, Node right) {
+        if (left == null)
+            return right;
+        if (right == null)
+            return left;
 
-        postorder(root);
+        Parts parts = splitLast(left);
+        return join(parts.less, parts.match, right);
+    }
 
-        System.out.println("\n\n");
+    /**
+     * Creates a node with the given value and children, with its height and size set.
+     *
+     * @param left  The left child.
+     * @param value The value.
+     * @param right The right child.
+     * @return The new node.
+     */
+    private Node node(Node left, ItemType value, Node right) {
+        Node bstree = new Node(value, left, right);
+        update(bstree);
+        return bstree;
     }
 
     /**
-     * Performs a post-order traversal of the tree.
+     * The set operations that combine two trees.
      */
-    private void postorder(Node btree) {
-        if (btree != null) {
-            postorder(btree.left);
-            postorder(btree.right);
-            System.out.print(btree.value + " ");
-        }
+    private enum SetOperation {
+        UNION, INTERSECTION, DIFFERENCE
     }
 
     /**
-     * This class represents the result of removing a node from a binary tree.
-     * It contains the removed node and the remaining tree after the removal.
+     * This class represents the result of splitting a subtree at a key.
      */
-    private class RemovalResult {
+    private class Parts {
+        /**
+         * The subtree of values less than the key.
+         */
+        Node less;
+
         /**
-         * The removed node.
+         * The value equal to the key, or null if there is none.
          */
-        Node node;
+        final ItemType match;
+
         /**
-         * The remaining tree after the removal.
+         * The subtree of values greater than the key.
          */
-        Node tree;
+        Node greater;
 
-        RemovalResult(Node node, Node tree) {
-            this.node = node;
-            this.tree = tree;
+        Parts(Node less, ItemType match, Node greater) {
+            this.less = less;
+            this.match = match;
+            this.greater = greater;
         }
     }
 
     /**
-     * This class represents a node in the binary search tree.
-     * Each node contains a value, and references to its left and right children.
+     * This class represents a set operation on two subtrees as a fork-join task.
+     * The first subtree is split at the root value of the second, the two halves are combined recursively,
+     * in parallel when they hold enough values, and the results are joined.
      */
-    public class Node {
+    private class SetTask extends RecursiveTask<Node> {
         /**
-         * The value of the node.
+         * The version of the serialized form, which RecursiveTask inherits from ForkJoinTask.
          */
-        ItemType value;
+        private static final long serialVersionUID = 1L;
 
         /**
-         * The left child of the node.
+         * The number of values in two subtrees above which their halves are combined in parallel.
+         */
+        private static final int PARALLEL_THRESHOLD = 1 << 13;
+
+        /**
+         * The set operation.
+         */
+        private final SetOperation operation;
+
+        /**
+         * The subtrees to combine.
+         */
+        private final transient Node first, second;
+
+        SetTask(SetOperation operation, Node first, Node second) {
+            this.operation = operation;
+            this.first = first;
+            this.second = second;
+        }
+
+        @Override
+        protected Node compute() {
+            if (first == null)
+                return operation == SetOperation.UNION ? second : null;
+            if (second == null)
+                return operation == SetOperation.INTERSECTION ? null : first;
+
+            Parts parts = split(first, second.value);
+            SetTask leftTask = new SetTask(operation, parts.less, second.left);
+            SetTask rightTask = new SetTask(operation, parts.greater, second.right);
+            Node left, right;
+            if (first.size + second.size >= PARALLEL_THRESHOLD) {
+                leftTask.fork();
+                right = rightTask.compute();
+                left = leftTask.join();
+            } else {
+                left = leftTask.compute();
+                right = rightTask.compute();
+            }
+
+            switch (operation) {
+                case UNION:
+                    return BinarySearchTree.this.join(left, second.value, right);
+                case INTERSECTION:
+                    if (parts.match != null)
+                        return BinarySearchTree.this.join(left, parts.match, right);
+                    return BinarySearchTree.this.join(left, right);
+                default:
+                    return BinarySearchTree.this.join(left, right);
+            }
+        }
+    }
+
+    /**
+     * Gets the height of a subtree.
+     *
+     * @param tree The subtree.
+     * @return The height of the subtree, 0 for an empty subtree.
+     */
+    protected int height(Node tree) {
+        return tree == null ? 0 : tree.height;
+    }
+
+    /**
+     * Gets the number of nodes in a subtree.
+     *
+     * @param tree The subtree.
+     * @return The size of the subtree, 0 for an empty subtree.
+     */
+    protected int size(Node tree) {
+        return tree == null ? 0 : tree.size;
+    }
+
+    /**
+     * Recomputes the height and size of a node from its children.
+     *
+     * @param tree The node to update.
+     */
+    protected void update(Node tree) {
+        tree.height = Math.max(height(tree.left), height(tree.right)) + 1;
+        tree.size = size(tree.left) + size(tree.right) + 1;
+    }
+
+    /**
+     * Rotates a subtree to the left, making its right child the new root.
+     *
+     * @param tree The root of the subtree.
+     * @return The new root of the subtree.
+     */
+    protected Node rotateLeft(Node tree) {
+        tree = writable(tree);
+        Node newRoot = writable(tree.right);
+        tree.right = newRoot.left;
+        newRoot.left = tree;
+        update(tree);
+        update(newRoot);
+        return newRoot;
+    }
+
+    /**
+     * Rotates a subtree to the right, making its left child the new root.
+     *
+     * @param tree The root of the subtree.
+     * @return The new root of the subtree.
+     */
+    protected Node rotateRight(Node tree) {
+        tree = writable(tree);
+        Node newRoot = writable(tree.left);
+        tree.left = newRoot.right;
+        newRoot.right = tree;
+        update(tree);
+        update(newRoot);
+        return newRoot;
+    }
+
+    /**
+     * Checks to see if a value is in the binary tree.
+     *
+     * @param searchTarget The value to check for.
+     * @return true if searchTarget is in the tree, false otherwise.
+     */
+    public boolean contains(ItemType searchTarget) {
+        return search(root, searchTarget, Function.identity()) != null;
+    }
+
+    /**
+     * Checks to see if a value with the given key is in the binary tree.
+     *
+     * @param key   The key to check for.
+     * @param keyOf The function extracting the key from a value, consistent with the ordering of the tree.
+     * @param <K>   The type of the key.
+     * @return true if a value with the key is in the tree, false otherwise.
+     */
+    public <K extends Comparable<? super K>> boolean containsKey(K key, Function<? super ItemType, ? extends K> keyOf) {
+        return search(root, key, keyOf) != null;
+    }
+
+    /**
+     * Searches for a value in the binary tree.
+     *
+     * @param searchTarget The value to search for.
+     * @return The value if found, null otherwise.
+     */
+    public ItemType search(ItemType searchTarget) {
+        return searchByKey(searchTarget, Function.identity());
+    }
+
+    /**
+     * Searches for the value with the given key in the binary tree.
+     * With a non-capturing keyOf, such as a method reference to a getter, the search allocates nothing.
+     *
+     * @param key   The key to search for.
+     * @param keyOf The function extracting the key from a value, consistent with the ordering of the tree.
+     * @param <K>   The type of the key.
+     * @return The value if found, null otherwise.
+     */
+    public <K extends Comparable<? super K>> ItemType searchByKey(K key, Function<? super ItemType, ? extends K> keyOf) {
+        Node resultNode = search(root, key, keyOf);
+        return resultNode != null ? resultNode.value : null;
+    }
+
+    /**
+     * The search method searches for a key in the binary tree.
+     *
+     * @param bstree The binary search tree.
+     * @param key    The key to search for.
+     * @param keyOf  The function extracting the key from a value.
+     * @return The node containing the key if found, null otherwise.
+     */
+    private <K extends Comparable<? super K>> Node search(Node bstree, K key, Function<? super ItemType, ? extends K> keyOf) {
+        while (bstree != null) {
+            int comparison = key.compareTo(keyOf.apply(bstree.value));
+            if (comparison == 0)
+                return bstree;
+            bstree = comparison < 0 ? bstree.left : bstree.right;
+        }
+        return null;
+    }
+
+    /**
+     * Counts the number of elements in the binary search tree.
+     *
+     * @return The number of nodes in the tree.
+     */
+    public int size() {
+        return count(root);
+    }
+
+    /**
+     * The count method counts the number of nodes in the binary search tree.
+     * Every node keeps the size of its subtree, so this does not walk the tree.
+     *
+     * @param tree The binary search tree.
+     * @return The number of nodes in the tree.
+     */
+    int count(Node tree) {
+        return size(tree);
+    }
+
+    /**
+     * Gets the rank of a value, the number of values in the tree that are less than it.
+     * If the value is in the tree this is its position in an in-order traversal,
+     * otherwise it is the position the value would be inserted at.
+     *
+     * @param key The value to rank.
+     * @return The number of values in the tree less than key.
+     */
+    public int rank(ItemType key) {
+        return rankByKey(key, Function.identity());
+    }
+
+    /**
+     * Gets the rank of a key, the number of values in the tree whose key is less than it.
+     *
+     * @param key   The key to rank.
+     * @param keyOf The function extracting the key from a value, consistent with the ordering of the tree.
+     * @param <K>   The type of the key.
+     * @return The number of values in the tree with a key less than key.
+     */
+    public <K extends Comparable<? super K>> int rankByKey(K key, Function<? super ItemType, ? extends K> keyOf) {
+        int rank = 0;
+        Node bstree = root;
+        while (bstree != null) {
+            int comparison = key.compareTo(keyOf.apply(bstree.value));
+            if (comparison <= 0) {
+                if (comparison == 0)
+                    return rank + size(bstree.left);
+                bstree = bstree.left;
+            } else {
+                rank += size(bstree.left) + 1;
+                bstree = bstree.right;
+            }
+        }
+        return rank;
+    }
+
+    /**
+     * Selects the value at a position in the in-order traversal of the tree.
+     *
+     * @param index The zero-based position of the value.
+     * @return The value at that position.
+     * @throws IndexOutOfBoundsException if index is negative or not less than size()
+     */
+    public ItemType select(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+
+        Node bstree = root;
+        while (true) {
+            int leftSize = size(bstree.left);
+            if (index < leftSize) {
+                bstree = bstree.left;
+            } else if (index == leftSize) {
+                return bstree.value;
+            } else {
+                index -= leftSize + 1;
+                bstree = bstree.right;
+            }
+        }
+    }
+
+    /**
+     * Gets the depth of the tree.
+     *
+     * @return The depth of the tree.
+     */
+    public int treeDepth() {
+        return getDepth(root) - 1;
+    }
+
+    /**
+     * The getDepth method gets the depth of a binary tree.
+     * Every node keeps the height of its subtree, so this does not walk the tree.
+     *
+     * @param tree The binary tree.
+     * @return The depth of the tree.
+     */
+    private int getDepth(Node tree) {
+        return height(tree);
+    }
+
+    /**
+     * Checks that the tree is a valid binary search tree in one in-order pass.
+     * The values must be strictly ascending, and every node must hold the correct height and size of its subtree.
+     * This catches values whose key was changed while they were in the tree.
+     *
+     * @throws IllegalStateException if an invariant does not hold
+     */
+    public void checkInvariants() {
+        Deque<Node> stack = new ArrayDeque<>();
+        Node btree = root;
+        Node previous = null;
+        while (btree != null || !stack.isEmpty()) {
+            while (btree != null) {
+                stack.push(btree);
+                btree = btree.left;
+            }
+            btree = stack.pop();
+
+            if (previous != null && previous.value.compareTo(btree.value) >= 0)
+                throw new IllegalStateException("Values out of order: " + previous.value + " is not less than " + btree.value);
+            checkNode(btree);
+
+            previous = btree;
+            btree = btree.right;
+        }
+    }
+
+    /**
+     * The checkNode method checks the invariants that only depend on a node and its children.
+     * Self-balancing subclasses extend this to check their balance condition.
+     *
+     * @param tree The node to check.
+     * @throws IllegalStateException if an invariant does not hold
+     */
+    protected void checkNode(Node tree) {
+        if (tree.value == null)
+            throw new IllegalStateException("Node without a value");
+        if (tree.height != Math.max(height(tree.left), height(tree.right)) + 1)
+            throw new IllegalStateException("Wrong height " + tree.height + " at " + tree.value);
+        if (tree.size != size(tree.left) + size(tree.right) + 1)
+            throw new IllegalStateException("Wrong size " + tree.size + " at " + tree.value);
+    }
+
+    /**
+     * Performs an in-order traversal of the tree, passing each value to an action in ascending order.
+     *
+     * @param action The action to perform on each value.
+     */
+    public void forEachInOrder(Consumer<? super ItemType> action) {
+        Deque<Node> stack = new ArrayDeque<>();
+        Node btree = root;
+        while (btree != null || !stack.isEmpty()) {
+            while (btree != null) {
+                stack.push(btree);
+                btree = btree.left;
+            }
+            btree = stack.pop();
+            action.accept(btree.value);
+            btree = btree.right;
+        }
+    }
+
+    /**
+     * Writes the values in the tree in ascending order, one per line, for debugging or export.
+     * Unbuffered writers and output streams such as System.out are written through a buffer, which is flushed
+     * at the end but not closed, so a large tree is written in large blocks rather than one value at a time.
+     *
+     * @param out Where to write the values.
+     * @throws IOException if writing fails
+     */
+    public void writeTo(Appendable out) throws IOException {
+        Writer buffer = null;
+        if (out instanceof OutputStream)
+            buffer = new BufferedWriter(new OutputStreamWriter((OutputStream) out));
+        else if (out instanceof Writer && !(out instanceof BufferedWriter))
+            buffer = new BufferedWriter((Writer) out);
+
+        Appendable writer = buffer != null ? buffer : out;
+        String lineSeparator = System.lineSeparator();
+        for (ItemType value : this) {
+            writer.append(String.valueOf(value)).append(lineSeparator);
+        }
+        if (buffer != null)
+            buffer.flush();
+    }
+
+    /**
+     * Writes the tree with its exact shape, so readShape can rebuild it in O(n) without comparing any values.
+     * The number of values comes first, then the nodes in pre-order, each as a byte of flags saying
+     * which children it has, followed by its value.
+     *
+     * @param out    The output to write to.
+     * @param writer The function writing one value.
+     * @throws IOException if writing fails
+     */
+    public void writeShape(DataOutput out, ItemWriter<? super ItemType> writer) throws IOException {
+        out.writeInt(size());
+        Deque<Node> stack = new ArrayDeque<>();
+        if (root != null)
+            stack.push(root);
+
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            out.writeByte((node.left != null ? HAS_LEFT : 0) | (node.right != null ? HAS_RIGHT : 0));
+            writer.write(out, node.value);
+            // Push the right child first so the left subtree is written first
+            if (node.right != null)
+                stack.push(node.right);
+            if (node.left != null)
+                stack.push(node.left);
+        }
+    }
+
+    /**
+     * Replaces the contents of the tree with a tree written by writeShape, rebuilding exactly the same shape.
+     * The nodes are linked as they are read and their heights and sizes computed once their subtrees are complete,
+     * so no value is compared. The values are trusted to be in order, which checkInvariants can verify.
+     *
+     * @param in     The input to read from.
+     * @param reader The function reading one value.
+     * @throws IOException if reading fails or the input is not a tree written by writeShape
+     */
+    public void readShape(DataInput in, ItemReader<? extends ItemType> reader) throws IOException {
+        int count = in.readInt();
+        if (count < 0)
+            throw new StreamCorruptedException("Negative tree size " + count);
+
+        // The nodes still missing a child, with the flags of the children still to be linked
+        Node[] pending = newNodeArray(32);
+        int[] missing = new int[32];
+        int top = 0;
+        Node newRoot = null;
+
+        for (int i = 0; i < count; i++) {
+            int flags = in.readUnsignedByte();
+            if ((flags & ~(HAS_LEFT | HAS_RIGHT)) != 0)
+                throw new StreamCorruptedException("Invalid node flags " + flags);
+            Node node = new Node(reader.read(in));
+
+            if (top == 0) {
+                if (newRoot != null)
+                    throw new StreamCorruptedException("More than one root");
+                newRoot = node;
+            } else if ((missing[top - 1] & HAS_LEFT) != 0) {
+                pending[top - 1].left = node;
+                missing[top - 1] &= ~HAS_LEFT;
+            } else {
+                pending[top - 1].right = node;
+                missing[top - 1] &= ~HAS_RIGHT;
+            }
+
+            if (top == pending.length) {
+                pending = Arrays.copyOf(pending, top * 2);
+                missing = Arrays.copyOf(missing, top * 2);
+            }
+            pending[top] = node;
+            missing[top++] = flags;
+
+            // Every node whose children are all linked is complete, so its height and size are known
+            while (top > 0 && missing[top - 1] == 0) {
+                update(pending[--top]);
+                pending[top] = null;
+            }
+        }
+        if (top != 0)
+            throw new StreamCorruptedException("Tree ended with " + top + " incomplete nodes");
+
+        root = newRoot;
+        modCount++;
+    }
+
+    /**
+     * Performs an in-order traversal of the tree, copying every value into a new list.
+     * Prefer iterating the tree or using stream() when a copy is not needed.
+     */
+    public List<ItemType> inorderTraversal() {
+        List<ItemType> result = new ArrayList<>(size());
+        for (ItemType value : this) {
+            result.add(value);
+        }
+        return result;
+    }
+
+    /**
+     * Gets an iterator over the values in the tree in ascending order.
+     *
+     * @return An in-order iterator.
+     */
+    @Override
+    public Iterator<ItemType> iterator() {
+        return new InOrderIterator();
+    }
+
+    /**
+     * Gets a spliterator over the values in the tree in ascending order.
+     *
+     * @return An in-order spliterator.
+     */
+    @Override
+    public Spliterator<ItemType> spliterator() {
+        return new InOrderSpliterator(0, size());
+    }
+
+    /**
+     * Gets a sequential stream of the values in the tree in ascending order.
+     *
+     * @return A stream of the values in the tree.
+     */
+    public Stream<ItemType> stream() {
+        return StreamSupport.stream(spliterator(), false);
+    }
+
+    /**
+     * Gets a parallel stream of the values in the tree in ascending order.
+     * The stream splits the tree by position, so a balanced tree is divided into even halves
+     * at a cost of O(depth) per split.
+     *
+     * @return A parallel stream of the values in the tree.
+     */
+    public Stream<ItemType> parallelStream() {
+        return StreamSupport.stream(spliterator(), true);
+    }
+
+    /**
+     * Gets a sequential stream of the values at a range of in-order positions.
+     * The stream starts at fromIndex in O(depth) without visiting the values before it.
+     *
+     * @param fromIndex The position of the first value, inclusive.
+     * @param toIndex   The position of the last value, exclusive.
+     * @return A stream of the values in the range.
+     * @throws IndexOutOfBoundsException if the range is not within 0 and size()
+     */
+    public Stream<ItemType> stream(int fromIndex, int toIndex) {
+        if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex)
+            throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", Size: " + size());
+        return StreamSupport.stream(new InOrderSpliterator(fromIndex, toIndex), false);
+    }
+
+    /**
+     * Performs a pre-order traversal of the tree, passing each value to an action before the values below it.
+     * Adding the values to an empty tree in this order rebuilds a tree of the same shape.
+     *
+     * @param action The action to perform on each value.
+     */
+    public void forEachPreOrder(Consumer<? super ItemType> action) {
+        Deque<Node> stack = new ArrayDeque<>();
+        if (root != null)
+            stack.push(root);
+
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            action.accept(node.value);
+            // Push the right child first so the left subtree is visited first
+            if (node.right != null)
+                stack.push(node.right);
+            if (node.left != null)
+                stack.push(node.left);
+        }
+    }
+
+    /**
+     * Performs a post-order traversal of the tree, passing each value to an action after the values below it.
+     *
+     * @param action The action to perform on each value.
+     */
+    public void forEachPostOrder(Consumer<? super ItemType> action) {
+        Deque<Node> stack = new ArrayDeque<>();
+        Node btree = root;
+        Node lastVisited = null;
+        while (btree != null || !stack.isEmpty()) {
+            while (btree != null) {
+                stack.push(btree);
+                btree = btree.left;
+            }
+            Node node = stack.peek();
+            // Visit the right subtree first unless it has just been finished
+            if (node.right != null && node.right != lastVisited) {
+                btree = node.right;
+            } else {
+                action.accept(node.value);
+                lastVisited = stack.pop();
+            }
+        }
+    }
+
+    /**
+     * Gets a stream of the values from fromInclusive up to but not including toExclusive, in ascending order.
+     * Only the subtrees overlapping the range are visited, so it costs O(depth + k) for k values.
+     *
+     * @param fromInclusive The lower bound of the range.
+     * @param toExclusive   The upper bound of the range.
+     * @return A stream of the values in the range, empty if toExclusive is not above fromInclusive.
+     */
+    public Stream<ItemType> range(ItemType fromInclusive, ItemType toExclusive) {
+        int fromIndex = rank(fromInclusive);
+        return stream(fromIndex, Math.max(fromIndex, rank(toExclusive)));
+    }
+
+    /**
+     * Gets a stream of the values less than toExclusive, in ascending order.
+     *
+     * @param toExclusive The upper bound of the values.
+     * @return A stream of the values below toExclusive.
+     */
+    public Stream<ItemType> headSet(ItemType toExclusive) {
+        return stream(0, rank(toExclusive));
+    }
+
+    /**
+     * Gets a stream of the values greater than or equal to fromInclusive, in ascending order.
+     *
+     * @param fromInclusive The lower bound of the values.
+     * @return A stream of the values from fromInclusive on.
+     */
+    public Stream<ItemType> tailSet(ItemType fromInclusive) {
+        return stream(rank(fromInclusive), size());
+    }
+
+    /**
+     * This class represents an in-order iterator over the tree.
+     * It keeps an explicit stack of the ancestors still to be visited, so it uses O(depth) memory.
+     */
+    private class InOrderIterator implements Iterator<ItemType> {
+        /**
+         * The nodes still to be visited, the next one on top.
+         */
+        private final Deque<Node> stack = new ArrayDeque<>();
+
+        /**
+         * The modification count of the tree when the iterator was created.
+         */
+        private final int expectedModCount = modCount;
+
+        InOrderIterator() {
+            pushLeft(root);
+        }
+
+        /**
+         * Pushes a node and its chain of left children onto the stack.
+         *
+         * @param node The node to start from.
+         */
+        private void pushLeft(Node node) {
+            for (; node != null; node = node.left) {
+                stack.push(node);
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !stack.isEmpty();
+        }
+
+        @Override
+        public ItemType next() {
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            if (stack.isEmpty())
+                throw new NoSuchElementException();
+
+            Node node = stack.pop();
+            pushLeft(node.right);
+            return node.value;
+        }
+    }
+
+    /**
+     * This class represents an in-order spliterator over a range of positions in the tree.
+     * It finds the first position by its rank in O(depth), then walks in order with an explicit stack.
+     * Splitting halves the range of positions, which for a balanced tree hands off the left and right subtrees.
+     */
+    private class InOrderSpliterator implements Spliterator<ItemType> {
+        /**
+         * The smallest range that is split, below this the overhead outweighs the parallelism.
+         */
+        private static final int MIN_SPLIT_SIZE = 64;
+
+        /**
+         * The position of the next value.
+         */
+        private int index;
+
+        /**
+         * The position after the last value, exclusive.
+         */
+        private final int fence;
+
+        /**
+         * The modification count of the tree when the spliterator was created.
+         */
+        private final int expectedModCount = modCount;
+
+        /**
+         * The nodes still to be visited, the next one on top, or null before the first value is taken.
+         */
+        private Deque<Node> stack;
+
+        InOrderSpliterator(int index, int fence) {
+            this.index = index;
+            this.fence = fence;
+        }
+
+        /**
+         * Builds the stack for starting an in-order walk at a position,
+         * holding the node at that position and every ancestor whose left subtree contains it.
+         *
+         * @param index The position to start at.
+         * @return The stack, with the node at the position on top.
+         */
+        private Deque<Node> seek(int index) {
+            Deque<Node> path = new ArrayDeque<>();
+            Node node = root;
+            while (node != null) {
+                int leftSize = size(node.left);
+                if (index < leftSize) {
+                    path.push(node);
+                    node = node.left;
+                } else if (index == leftSize) {
+                    path.push(node);
+                    break;
+                } else {
+                    index -= leftSize + 1;
+                    node = node.right;
+                }
+            }
+            return path;
+        }
+
+        /**
+         * Takes the next value, which must exist.
+         *
+         * @return The next value.
+         */
+        private ItemType next() {
+            if (stack == null)
+                stack = seek(index);
+
+            Node node = stack.pop();
+            for (Node child = node.right; child != null; child = child.left) {
+                stack.push(child);
+            }
+            index++;
+            return node.value;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super ItemType> action) {
+            Objects.requireNonNull(action);
+            if (index >= fence)
+                return false;
+
+            action.accept(next());
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(Consumer<? super ItemType> action) {
+            Objects.requireNonNull(action);
+            while (index < fence) {
+                action.accept(next());
+            }
+            if (modCount != expectedModCount)
+                throw new ConcurrentModificationException();
+        }
+
+        @Override
+        public Spliterator<ItemType> trySplit() {
+            // Each half must find its start in O(depth), so in a skewed tree only ranges
+            // larger than the depth are split, keeping that cost below the work handed off
+            int remaining = fence - index;
+            if (remaining < MIN_SPLIT_SIZE || remaining < 2 * height(root))
+                return null;
+
+            // The prefix carries on from where this one is, and this one restarts at the middle
+            int mid = (index + fence) >>> 1;
+            InOrderSpliterator prefix = new InOrderSpliterator(index, mid);
+            prefix.stack = stack;
+            index = mid;
+            stack = null;
+            return prefix;
+        }
+
+        @Override
+        public long estimateSize() {
+            return fence - index;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | DISTINCT | NONNULL | SIZED | SUBSIZED;
+        }
+
+        @Override
+        public Comparator<? super ItemType> getComparator() {
+            // The values are in their natural order
+            return null;
+        }
+    }
+
+    /**
+     * This interface represents a function writing one value of a tree to a binary output.
+     *
+     * @param <T> the type of the values
+     */
+    @FunctionalInterface
+    public interface ItemWriter<T> {
+        /**
+         * Writes a value.
+         *
+         * @param out  The output to write to.
+         * @param item The value to write.
+         * @throws IOException if writing fails
+         */
+        void write(DataOutput out, T item) throws IOException;
+    }
+
+    /**
+     * This interface represents a function reading one value of a tree from a binary input.
+     *
+     * @param <T> the type of the values
+     */
+    @FunctionalInterface
+    public interface ItemReader<T> {
+        /**
+         * Reads a value.
+         *
+         * @param in The input to read from.
+         * @return The value read.
+         * @throws IOException if reading fails
+         */
+        T read(DataInput in) throws IOException;
+    }
+
+    /**
+     * This class represents a tree split at a key: the values less than the key,
+     * the value equal to the key if there is one, and the values greater than the key.
+     *
+     * @param <T> the type of the values
+     */
+    public static class Split<T extends Comparable<T>> {
+        private final BinarySearchTree<T> less;
+        private final T match;
+        private final BinarySearchTree<T> greater;
+
+        Split(BinarySearchTree<T> less, T match, BinarySearchTree<T> greater) {
+            this.less = less;
+            this.match = match;
+            this.greater = greater;
+        }
+
+        /**
+         * Gets the tree of values less than the key.
+         *
+         * @return The tree of smaller values.
+         */
+        public BinarySearchTree<T> getLess() {
+            return less;
+        }
+
+        /**
+         * Gets the value equal to the key.
+         *
+         * @return The value equal to the key, or null if the tree had none.
+         */
+        public T getMatch() {
+            return match;
+        }
+
+        /**
+         * Gets the tree of values greater than the key.
+         *
+         * @return The tree of greater values.
+         */
+        public BinarySearchTree<T> getGreater() {
+            return greater;
+        }
+    }
+
+    /**
+     * This class represents a node in the binary search tree.
+     * Each node contains a value, and references to its left and right children.
+     */
+    public class Node {
+        /**
+         * The value of the node.
+         */
+        ItemType value;
+
+        /**
+         * The left child of the node.
          */
         Node left, right;
 
+        /**
+         * The height of the subtree rooted at this node, a leaf having height 1.
+         */
+        int height = 1;
+
+        /**
+         * The number of nodes in the subtree rooted at this node, including itself.
+         */
+        int size = 1;
+
+        /**
+         * The epoch of the tree that created the node, and so may change it in place.
+         */
+        final int epoch = BinarySearchTree.this.epoch;
+
         /**
          * Constructor for the Node class.
          * Initializes the node with the given value and null children.
@@ -421,4 +1950,4 @@ public class BinarySearchTree<ItemType extends Comparable<ItemType>> {
         }
     }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,161 @@
+package org.example.program10;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * This class represents a tokenizer that reads comma-separated records from UTF-8 bytes, following RFC 4180.
+ * A field may be enclosed in double quotes, in which case it may contain commas, line breaks and
+ * doubled double quotes standing for one double quote. Records end with LF or CRLF, and empty lines are skipped.
+ * It scans each byte once and copies a field's bytes only to decode them into its String,
+ * so the only allocation per field is the field itself, and the array of fields is reused between records.
+ * It is not thread-safe.
+ */
+public class CsvTokenizer {
+
+    /**
+     * The bytes to read, from their position to their limit.
+     */
+    private final ByteBuffer bytes;
+
+    /**
+     * The bytes of the current field, without enclosing quotes and with doubled quotes undone.
+     */
+    private byte[] field = new byte[64];
+
+    /**
+     * The number of records read, for error messages.
+     */
+    private long records;
+
+    /**
+     * Constructor for the CsvTokenizer class.
+     *
+     * @param bytes The bytes to read, from their position to their limit, such as a memory-mapped file.
+     *              Reading advances their position.
+     */
+    public CsvTokenizer(ByteBuffer bytes) {
+        this.bytes = bytes;
+    }
+
+    /**
+     * Skips empty lines, leaving the position of the bytes at the start of the next record.
+     *
+     * @return True if there is another record.
+     */
+    public boolean hasNext() {
+        while (bytes.hasRemaining() && (peek() == '\n' || peek() == '\r'))
+            bytes.get();
+        return bytes.hasRemaining();
+    }
+
+    /**
+     * Reads the next record.
+     *
+     * @param fields The array to store the fields of the record in.
+     * @return The number of fields in the record, or -1 if there are no more records.
+     * @throws IOException if the record has more fields than the array holds or has an unterminated quoted field
+     */
+    public int next(String[] fields) throws IOException {
+        if (!hasNext())
+            return -1;
+
+        records++;
+        int count = 0;
+        while (true) {
+            if (count == fields.length)
+                throw new IOException("Record " + records + " has more than " + fields.length + " fields");
+            fields[count++] = readField();
+            if (!bytes.hasRemaining())
+                return count;
+            byte b = bytes.get();
+            if (b == ',')
+                continue;
+            if (b == '\r' && bytes.hasRemaining() && peek() == '\n')
+                bytes.get();
+            return count;
+        }
+    }
+
+    /**
+     * Reads one field, stopping before the comma or line break that ends it.
+     *
+     * @return The field.
+     * @throws IOException if the field is quoted and its closing quote is missing
+     */
+    private String readField() throws IOException {
+        int start = bytes.position();
+        int limit = bytes.limit();
+        if (start == limit || bytes.get(start) != '"') {
+            // An unquoted field is decoded straight from its bytes, copied in one block
+            int end = start;
+            while (end < limit && !isDelimiter(end))
+                end++;
+            int length = end - start;
+            if (length > field.length)
+                field = new byte[Math.max(length, field.length * 2)];
+            bytes.get(start, field, 0, length);
+            bytes.position(end);
+            return new String(field, 0, length, StandardCharsets.UTF_8);
+        }
+
+        int length = 0;
+        int i = start + 1;
+        while (true) {
+            if (i == limit)
+                throw new IOException("Record " + records + " has an unterminated quoted field");
+            byte b = bytes.get(i++);
+            if (b == '"') {
+                if (i == limit || bytes.get(i) != '"')
+                    break;
+                // A doubled quote stands for one quote
+                i++;
+            }
+            length = append(length, b);
+        }
+
+        // Characters after a closing quote are kept as they are, like those of an unquoted field
+        while (i < limit && !isDelimiter(i))
+            length = append(length, bytes.get(i++));
+        bytes.position(i);
+        return new String(field, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Checks whether the byte at an index ends a field: a comma, a line feed, or a carriage return that ends the line.
+     *
+     * @param index The index of the byte.
+     * @return true if the byte ends a field.
+     */
+    private boolean isDelimiter(int index) {
+        byte b = bytes.get(index);
+        if (b > '\r' || b < 0)
+            return b == ',';
+        return b == '\n' || (b == '\r' && (index + 1 == bytes.limit() || bytes.get(index + 1) == '\n'));
+    }
+
+    /**
+     * Gets the next byte without reading it.
+     *
+     * @return The next byte.
+     */
+    private byte peek() {
+        return bytes.get(bytes.position());
+    }
+
+    /**
+     * Appends a byte to the current field, growing it if needed.
+     *
+     * @param length The length of the field.
+     * @param b      The byte.
+     * @return The new length of the field.
+     */
+    private int append(int length, byte b) {
+        if (length == field.length)
+            field = Arrays.copyOf(field, length * 2);
+        field[length] = b;
+        return length + 1;
+    }
+}
@@ -0,0 +1,108 @@
+package org.example.program10;
+
+import java.io.IOException;
+
+/**
+ * This class represents a writer of comma-separated records that CsvTokenizer reads back, following RFC 4180.
+ * A field is enclosed in double quotes only if it contains a comma, a double quote or a line break,
+ * and its double quotes are doubled, so records whose fields need no quoting are written exactly as joined by commas.
+ */
+public class CsvWriter {
+
+    /**
+     * Where to write the records.
+     */
+    private final Appendable out;
+
+    /**
+     * The text ending each record.
+     */
+    private final String lineSeparator;
+
+    /**
+     * Whether the next field is the first of its record.
+     */
+    private boolean firstField = true;
+
+    /**
+     * Constructor for the CsvWriter class, ending records with the line separator of the system.
+     *
+     * @param out Where to write the records, such as a BufferedWriter.
+     */
+    public CsvWriter(Appendable out) {
+        this(out, System.lineSeparator());
+    }
+
+    /**
+     * Constructor for the CsvWriter class.
+     *
+     * @param out           Where to write the records.
+     * @param lineSeparator The text ending each record.
+     */
+    public CsvWriter(Appendable out, String lineSeparator) {
+        this.out = out;
+        this.lineSeparator = lineSeparator;
+    }
+
+    /**
+     * Writes a field of the current record, quoting it if needed.
+     *
+     * @param value The field. Null is written as the text "null".
+     * @return This writer, to write the next field.
+     * @throws IOException if writing fails
+     */
+    public CsvWriter field(String value) throws IOException {
+        if (!firstField)
+            out.append(',');
+        firstField = false;
+        appendField(out, String.valueOf(value));
+        return this;
+    }
+
+    /**
+     * Ends the current record.
+     *
+     * @throws IOException if writing fails
+     */
+    public void endRecord() throws IOException {
+        out.append(lineSeparator);
+        firstField = true;
+    }
+
+    /**
+     * Writes a field, enclosing it in double quotes and doubling its double quotes if it contains
+     * a comma, a double quote or a line break.
+     *
+     * @param out   Where to write the field.
+     * @param value The field.
+     * @throws IOException if writing fails
+     */
+    public static void appendField(Appendable out, String value) throws IOException {
+        if (!needsQuotes(value)) {
+            out.append(value);
+            return;
+        }
+        out.append('"');
+        int start = 0;
+        for (int i = value.indexOf('"'); i >= 0; i = value.indexOf('"', start)) {
+            out.append(value, start, i + 1).append('"');
+            start = i + 1;
+        }
+        out.append(value, start, value.length()).append('"');
+    }
+
+    /**
+     * Checks whether a field must be enclosed in double quotes.
+     *
+     * @param value The field.
+     * @return true if the field contains a comma, a double quote or a line break.
+     */
+    private static boolean needsQuotes(String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == ',' || c == '"' || c == '\n' || c == '\r')
+                return true;
+        }
+        return false;
+    }
+}
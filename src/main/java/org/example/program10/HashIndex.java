@@ -0,0 +1,240 @@
+package org.example.program10;
+
+import java.util.Objects;
+import java.util.function.Function;
+
+/**
+ * This class represents a hash index from a key to the value holding it, for O(1) exact-match lookups.
+ * It uses open addressing with linear probing: the values are stored directly in one array,
+ * next to an array of their cached hash codes, so a lookup usually reads one or two adjacent slots
+ * and only extracts and compares a key when the hash codes match.
+ * Removal shifts the following values of the probe run back instead of leaving deleted markers,
+ * so lookups never slow down after many removals.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values
+ */
+public class HashIndex<K, V> {
+
+    /**
+     * The largest fraction of the slots that may be in use before the table grows, as a numerator over 4.
+     */
+    private static final int MAX_LOAD_QUARTERS = 3;
+
+    /**
+     * The function extracting the key from a value.
+     */
+    private final Function<? super V, ? extends K> keyOf;
+
+    /**
+     * The cached hash code of the value in each slot.
+     */
+    private int[] hashes;
+
+    /**
+     * The value in each slot, or null for an empty slot.
+     */
+    private Object[] values;
+
+    /**
+     * The number of values in the index.
+     */
+    private int size;
+
+    /**
+     * Constructor for the HashIndex class.
+     *
+     * @param keyOf The function extracting the key from a value. The key of a value must not change while it is indexed.
+     */
+    public HashIndex(Function<? super V, ? extends K> keyOf) {
+        this.keyOf = Objects.requireNonNull(keyOf);
+        hashes = new int[16];
+        values = new Object[16];
+    }
+
+    /**
+     * Gets the number of values in the index.
+     *
+     * @return The number of values in the index.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the value with the given key.
+     *
+     * @param key The key to look up.
+     * @return The value with the key, or null if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        int slot = find(key, hash(key));
+        return slot >= 0 ? (V) values[slot] : null;
+    }
+
+    /**
+     * Adds a value to the index, replacing the value with the same key if there is one.
+     *
+     * @param value The value to add.
+     * @return The value replaced, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V put(V value) {
+        K key = keyOf.apply(value);
+        int hash = hash(key);
+        int slot = find(key, hash);
+        if (slot >= 0) {
+            V previous = (V) values[slot];
+            values[slot] = value;
+            return previous;
+        }
+
+        if ((size + 1) * 4 > values.length * MAX_LOAD_QUARTERS)
+            resize(values.length * 2);
+        insert(hash, value);
+        size++;
+        return null;
+    }
+
+    /**
+     * Removes the value with the given key from the index.
+     *
+     * @param key The key of the value to remove.
+     * @return The value removed, or null if there was none.
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(K key) {
+        int slot = find(key, hash(key));
+        if (slot < 0)
+            return null;
+
+        V removed = (V) values[slot];
+        int mask = values.length - 1;
+
+        // Shift back every following value of the probe run that may move into the emptied slot
+        int empty = slot;
+        for (int next = (slot + 1) & mask; values[next] != null; next = (next + 1) & mask) {
+            int home = hashes[next] & mask;
+            // The value stays if its home slot lies cyclically after the empty slot, up to its own slot
+            boolean stays = empty <= next ? empty < home && home <= next : empty < home || home <= next;
+            if (!stays) {
+                hashes[empty] = hashes[next];
+                values[empty] = values[next];
+                empty = next;
+            }
+        }
+        values[empty] = null;
+        hashes[empty] = 0;
+        size--;
+        return removed;
+    }
+
+    /**
+     * Replaces the contents of the index with the given values, sizing the table for them once.
+     *
+     * @param items The values to index, with unique keys.
+     * @param count The number of values.
+     */
+    public void rebuild(Iterable<? extends V> items, int count) {
+        int capacity = 16;
+        while (count * 4 > capacity * MAX_LOAD_QUARTERS)
+            capacity *= 2;
+        hashes = new int[capacity];
+        values = new Object[capacity];
+        size = 0;
+        for (V value : items) {
+            insert(hash(keyOf.apply(value)), value);
+            size++;
+        }
+    }
+
+    /**
+     * Checks that every value in the index can be found by its key and that the size is correct.
+     *
+     * @throws IllegalStateException if an invariant does not hold
+     */
+    @SuppressWarnings("unchecked")
+    public void checkInvariants() {
+        int count = 0;
+        for (int slot = 0; slot < values.length; slot++) {
+            if (values[slot] == null)
+                continue;
+            K key = keyOf.apply((V) values[slot]);
+            if (hashes[slot] != hash(key))
+                throw new IllegalStateException("Stale hash code for " + key);
+            if (find(key, hashes[slot]) != slot)
+                throw new IllegalStateException("Unreachable or duplicate key " + key);
+            count++;
+        }
+        if (count != size)
+            throw new IllegalStateException("Index holds " + count + " values but size is " + size);
+    }
+
+    /**
+     * Finds the slot holding a key by probing from its home slot.
+     * The probe is bounded by the table length, so it ends even if the table is read while being changed.
+     *
+     * @param key  The key to look for.
+     * @param hash The hash code of the key.
+     * @return The slot holding the key, or -1 if it is not in the index.
+     */
+    @SuppressWarnings("unchecked")
+    private int find(K key, int hash) {
+        int[] hashes = this.hashes;
+        Object[] values = this.values;
+        int mask = values.length - 1;
+        int slot = hash & mask;
+        for (int probes = 0; probes < values.length; probes++) {
+            Object value = values[slot];
+            if (value == null)
+                return -1;
+            if (hashes[slot] == hash && key.equals(keyOf.apply((V) value)))
+                return slot;
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Puts a value into the first empty slot of its probe run, the key being known not to be in the index.
+     *
+     * @param hash  The hash code of the key of the value.
+     * @param value The value.
+     */
+    private void insert(int hash, Object value) {
+        int mask = values.length - 1;
+        int slot = hash & mask;
+        while (values[slot] != null)
+            slot = (slot + 1) & mask;
+        hashes[slot] = hash;
+        values[slot] = value;
+    }
+
+    /**
+     * Moves every value into a new table of the given capacity, reusing the cached hash codes.
+     *
+     * @param capacity The new capacity, a power of two.
+     */
+    private void resize(int capacity) {
+        int[] oldHashes = hashes;
+        Object[] oldValues = values;
+        hashes = new int[capacity];
+        values = new Object[capacity];
+        for (int slot = 0; slot < oldValues.length; slot++) {
+            if (oldValues[slot] != null)
+                insert(oldHashes[slot], oldValues[slot]);
+        }
+    }
+
+    /**
+     * Gets the hash code of a key, with its high bits mixed into the low bits used to pick a slot.
+     *
+     * @param key The key.
+     * @return The mixed hash code.
+     */
+    private static int hash(Object key) {
+        int hash = key.hashCode() * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
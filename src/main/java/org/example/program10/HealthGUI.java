@@ -1,5 +1,7 @@
 package org.example.program10;
 
+import javafx.concurrent.Task;
+import javafx.concurrent.Worker;
 import javafx.geometry.Insets;
 import javafx.scene.Scene;
 import javafx.scene.control.*;
@@ -39,6 +41,16 @@ public class HealthGUI {
      */
     private final PatientBST patientBST;
 
+    /**
+     * The background task loading the patient data into patientBST.
+     */
+    private final Task<PatientBST> loading;
+
+    /**
+     * The email of the patient currently shown in the fields, so an edited email can be detected.
+     */
+    private String loadedEmail;
+
     /**
      * The text field for entering the patient's first name.
      */
@@ -139,11 +151,12 @@ public class HealthGUI {
     /**
      * Constructor for the HealthGUI class.
      * Initializes the stage, gridPane, tabPane, and patientBST.
-     * Also sets up the scene and shows the stage.
+     * Also sets up the scene and shows the stage at once, while the patient data loads in the background
+     * with its progress shown above the tabs; searching and adding patients are enabled once it has loaded.
      *
      * @param vBox The VBox to add the tabPane and gridPane to.
      */
-    public HealthGUI(VBox vBox) throws IOException {
+    public HealthGUI(VBox vBox) {
         stage = new Stage();
         stage.setTitle("Patient Search and Management System");
 
@@ -155,7 +168,8 @@ public class HealthGUI {
         tabPane = new TabPane();
 
         patientBST = new PatientBST();
-        patientBST.loadPatientData();
+        // Searches by email are the most frequent operation, so index the patients by email
+        patientBST.setHashIndex(true);
 
         // Add tabs to the tab pane
         addPatientDetailsTab();
@@ -167,11 +181,23 @@ public class HealthGUI {
         editPatientButton.setDisable(true);
         resetButton.setDisable(true);
 
+        // Load the patients in the background, the window opens at once and cannot search until they are loaded
+        searchButton.setDisable(true);
+        addPatientButton.setDisable(true);
+        loading = patientBST.loadPatientDataAsync();
+        loading.setOnSucceeded(e -> {
+            searchButton.setDisable(false);
+            addPatientButton.setDisable(false);
+        });
+
+        vBox.getChildren().add(new LoadingPane(loading));
         vBox.getChildren().add(tabPane);
         vBox.getChildren().add(gridPane);
 
         Scene scene = new Scene(vBox, 720, 480);
         stage.setScene(scene);
+        // Stop loading if the window is closed first
+        stage.setOnHidden(e -> loading.cancel());
         stage.show();
     }
 
@@ -409,8 +435,14 @@ public class HealthGUI {
         // Use a method to get the patient from the fields
         Patient newPatient = getPatientFromFields();
 
-        // Add the patient to the BST
-        patientBST.addPatient(newPatient);
+        // Add the patient to the BST, emails are unique so an existing patient is not replaced
+        if (!patientBST.addPatient(newPatient)) {
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Error");
+            alert.setHeaderText("Duplicate Patient Email");
+            alert.setContentText("A patient with the provided email already exists.\n" + "Use Edit Patient to change their details");
+            alert.showAndWait();
+        }
     }
 
     /**
@@ -509,6 +541,7 @@ public class HealthGUI {
             zipField.setText(patient.getZip());
             phoneField.setText(patient.getPhone());
             emailField.setText(patient.getEmail());
+            loadedEmail = patient.getEmail();
 
             firstNameField.setEditable(true);
             lastNameField.setEditable(true);
@@ -544,6 +577,7 @@ public class HealthGUI {
         } else {
             // If the patient is not found, display an error message and disable all fields except the email field
             searchAlert();
+            loadedEmail = null;
 
             firstNameField.setEditable(false);
             lastNameField.setEditable(false);
@@ -602,6 +636,14 @@ public class HealthGUI {
 
         // If the user confirms the edit operation, update the patient's details
         if (alert.getResult() == ButtonType.OK) {
+            // The email is the key of the BST, so a changed email moves the patient first
+            if (loadedEmail != null && !loadedEmail.equals(updatedPatient.getEmail())) {
+                if (!patientBST.changeKey(loadedEmail, updatedPatient.getEmail())) {
+                    changeEmailAlert();
+                    return;
+                }
+                loadedEmail = updatedPatient.getEmail();
+            }
             patientBST.updatePatient(updatedPatient);
 
             // Show a confirmation alert indicating that the patient's details have been successfully updated
@@ -609,6 +651,18 @@ public class HealthGUI {
         }
     }
 
+    /**
+     * Creates and shows an error alert for an email that cannot be changed to.
+     * The alert informs the user that the new email is invalid or already belongs to another patient.
+     */
+    private void changeEmailAlert() {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText("Invalid Patient Email");
+        alert.setContentText("The new email is invalid or already belongs to another patient.\n" + "Please try again");
+        alert.showAndWait();
+    }
+
     /**
      * Creates and shows a confirmation alert for editing a patient's details.
      * The alert asks the user to confirm the edit operation.
@@ -697,6 +751,7 @@ public class HealthGUI {
         // Clear the phone and email fields
         phoneField.clear();
         emailField.clear();
+        loadedEmail = null;
 
         // Clear the flu date pickers
         fluInoculationDate1.setValue(null);
@@ -720,12 +775,29 @@ public class HealthGUI {
         quitButton = new Button("Quit");
         quitButton.setOnAction(e -> {
             // Save patient data to file and close the stage
-            try {
-                patientBST.savePatientData("patients_bst.txt");
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
+            // Patients that were not loaded completely are not saved, so they cannot overwrite the saved data
+            if (loading.getState() == Worker.State.SUCCEEDED) {
+                try {
+                    patientBST.savePatientData("patients_bst.txt");
+                } catch (IOException ex) {
+                    saveAlert(ex);
+                    return;
+                }
             }
             stage.close();
         });
     }
+
+    /**
+     * Displays an error alert when the patient data cannot be saved.
+     *
+     * @param exception The exception saving failed with.
+     */
+    private void saveAlert(IOException exception) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText("The patient data could not be saved");
+        alert.setContentText(exception.getMessage());
+        alert.showAndWait();
+    }
 }
\ No newline at end of file
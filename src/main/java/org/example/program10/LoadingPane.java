@@ -0,0 +1,94 @@
+package org.example.program10;
+
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.HBox;
+
+/**
+ * This class represents a bar showing the progress of a background task, such as loading the patient data,
+ * with a button to cancel it.
+ * It hides itself when the task succeeds, says so when the task is cancelled,
+ * and shows an error alert when the task fails.
+ */
+public class LoadingPane extends HBox {
+
+    /**
+     * The progress bar, following the progress of the task.
+     */
+    private final ProgressBar progressBar;
+
+    /**
+     * The label showing the message of the task.
+     */
+    private final Label messageLabel;
+
+    /**
+     * The "Cancel" button for cancelling the task.
+     */
+    private final Button cancelButton;
+
+    /**
+     * Constructor for the LoadingPane class.
+     *
+     * @param task The task to follow, running or about to run.
+     */
+    public LoadingPane(Task<?> task) {
+        super(10);
+        setPadding(new Insets(10, 20, 0, 20));
+        setAlignment(Pos.CENTER_LEFT);
+
+        progressBar = new ProgressBar();
+        progressBar.setPrefWidth(250);
+        progressBar.progressProperty().bind(task.progressProperty());
+
+        messageLabel = new Label();
+        messageLabel.textProperty().bind(task.messageProperty());
+
+        cancelButton = new Button("Cancel");
+        cancelButton.setOnAction(e -> task.cancel());
+
+        getChildren().addAll(progressBar, messageLabel, cancelButton);
+
+        task.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, e -> {
+            setVisible(false);
+            setManaged(false);
+        });
+        task.addEventHandler(WorkerStateEvent.WORKER_STATE_CANCELLED, e -> finish("Loading cancelled"));
+        task.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, e -> {
+            finish("Loading failed");
+            failureAlert(task.getException());
+        });
+    }
+
+    /**
+     * Stops following the task, leaving a final message.
+     *
+     * @param message The final message.
+     */
+    private void finish(String message) {
+        progressBar.progressProperty().unbind();
+        progressBar.setProgress(0);
+        messageLabel.textProperty().unbind();
+        messageLabel.setText(message);
+        cancelButton.setDisable(true);
+    }
+
+    /**
+     * Displays an error alert for a failed task.
+     *
+     * @param exception The exception the task failed with.
+     */
+    private void failureAlert(Throwable exception) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText("The patient data could not be loaded");
+        alert.setContentText(String.valueOf(exception != null ? exception.getMessage() : null));
+        alert.show();
+    }
+}
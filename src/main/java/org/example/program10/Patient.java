@@ -1,9 +1,23 @@
 package org.example.program10;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * This class represents a Patient object.
  * It contains fields for the first name, last name, address, city, state, zip, phone, email, date1, and date2.
- * It also contains a constructor to initialize the fields, getters and setters for the fields, and toString and toDataString methods.
+ * To keep millions of patients in memory, the dates are stored as epoch days, the state as a one-byte code
+ * and the zip code as an int, and the vaccination status is computed once whenever a date changes.
+ * Getters still return the exact strings the patient was created with; a value that does not fit
+ * its compact form, such as a date in another format, is kept as it was given.
+ * It also contains a constructor to initialize the fields, getters and setters for the fields, and toString, toDataString and writeDataTo methods,
+ * and methods to write and read the Patient object in a compact binary form.
  */
 public class Patient implements Comparable<Patient> {
 
@@ -28,14 +42,14 @@ public class Patient implements Comparable<Patient> {
     private String city;
 
     /**
-     * The state of the patient.
+     * The state of the patient, as its position in STATES plus one, NO_CODE if null or IRREGULAR_CODE if not in STATES.
      */
-    private String state;
+    private byte state;
 
     /**
-     * The zip code of the patient.
+     * The zip code of the patient as a number, NO_ZIP if null or IRREGULAR_ZIP if not five digits.
      */
-    private String zip;
+    private int zip;
 
     /**
      * The phone number of the patient.
@@ -48,14 +62,70 @@ public class Patient implements Comparable<Patient> {
     private String email;
 
     /**
-     * The date of the first covid-19 vaccine shot.
+     * The date of the first covid-19 vaccine shot, as days since 1970-01-01 or one of the date sentinels.
+     */
+    private int date1;
+
+    /**
+     * The date of the second covid-19 vaccine shot, as days since 1970-01-01 or one of the date sentinels.
+     */
+    private int date2;
+
+    /**
+     * Which vaccine shots the patient has received, kept in step with the dates.
+     */
+    private VaccinationStatus vaccinationStatus;
+
+    /**
+     * The values given for date1, date2, state and zip that do not fit their compact form, or null if all fit.
+     */
+    private String[] irregular;
+
+    /**
+     * The two-letter codes of the states, in the order of their one-byte codes.
+     */
+    private static final String[] STATES = {"AL", "AK", "AZ", "AR", "CA", "CO", "CT", "DE", "FL", "GA", "HI", "ID", "IL", "IN", "IA", "KS", "KY", "LA", "ME", "MD", "MA", "MI", "MN", "MS", "MO", "MT", "NE", "NV", "NH", "NJ", "NM", "NY", "NC", "ND", "OH", "OK", "OR", "PA", "RI", "SC", "SD", "TN", "TX", "UT", "VT", "VA", "WA", "WV", "WI", "WY", "DC", "PR"};
+
+    /**
+     * The code of each state in STATES, its position plus one.
+     */
+    private static final Map<String, Byte> STATE_CODES = new HashMap<>();
+
+    static {
+        for (int i = 0; i < STATES.length; i++) {
+            STATE_CODES.put(STATES[i], (byte) (i + 1));
+        }
+    }
+
+    /**
+     * The date stored for a shot given as "0000-00-00", meaning not received.
+     */
+    private static final int NO_DATE = Integer.MIN_VALUE;
+
+    /**
+     * The date stored for a shot given as null.
      */
-    private String date1;
+    private static final int NULL_DATE = Integer.MIN_VALUE + 1;
 
     /**
-     * The date of the second covid-19 vaccine shot.
+     * The date stored for a shot given in another form, which is kept in irregular.
      */
-    private String date2;
+    private static final int IRREGULAR_DATE = Integer.MIN_VALUE + 2;
+
+    /**
+     * The state code stored for a null state, and for a state kept in irregular.
+     */
+    private static final byte NO_CODE = 0, IRREGULAR_CODE = -1;
+
+    /**
+     * The zip code stored for a null zip, and for a zip kept in irregular.
+     */
+    private static final int NO_ZIP = -1, IRREGULAR_ZIP = -2;
+
+    /**
+     * The positions in irregular of the values of each field.
+     */
+    private static final int DATE1 = 0, DATE2 = 1, STATE = 2, ZIP = 3;
 
     /**
      * Constructs a Patient object with the given fields.
@@ -75,12 +145,50 @@ public class Patient implements Comparable<Patient> {
         this.lastName = lastName;
         this.address = address;
         this.city = city;
-        this.state = state;
-        this.zip = zip;
+        setState(state);
+        setZip(zip);
+        this.phone = phone;
+        this.email = email;
+        setDate1(date1);
+        setDate2(date2);
+    }
+
+    /**
+     * Constructs a copy of a Patient object with another email, sharing its compact fields without parsing them again.
+     * @param patient The patient to copy.
+     * @param email The email of the copy.
+     */
+    public Patient(Patient patient, String email) {
+        this.firstName = patient.firstName;
+        this.lastName = patient.lastName;
+        this.address = patient.address;
+        this.city = patient.city;
+        this.state = patient.state;
+        this.zip = patient.zip;
+        this.phone = patient.phone;
+        this.email = email;
+        this.date1 = patient.date1;
+        this.date2 = patient.date2;
+        this.vaccinationStatus = patient.vaccinationStatus;
+        this.irregular = patient.irregular != null ? patient.irregular.clone() : null;
+    }
+
+    /**
+     * Constructs a Patient object with the given string fields, leaving the compact fields for readFrom to set.
+     * @param firstName
+     * @param lastName
+     * @param address
+     * @param city
+     * @param phone
+     * @param email
+     */
+    private Patient(String firstName, String lastName, String address, String city, String phone, String email) {
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.address = address;
+        this.city = city;
         this.phone = phone;
         this.email = email;
-        this.date1 = date1;
-        this.date2 = date2;
     }
 
     /**
@@ -88,7 +196,7 @@ public class Patient implements Comparable<Patient> {
      * @param email
      */
     public Patient(String email) {
-        this.email = email;
+        this(null, null, null, null, null, null, null, email, null, null);
     }
 
     /**
@@ -160,7 +268,9 @@ public class Patient implements Comparable<Patient> {
      * @return The state of the patient.
      */
     public String getState() {
-        return state;
+        if (state == IRREGULAR_CODE)
+            return irregular[STATE];
+        return state == NO_CODE ? null : STATES[state - 1];
     }
 
     /**
@@ -168,7 +278,12 @@ public class Patient implements Comparable<Patient> {
      * @param state The state of the patient.
      */
     public void setState(String state) {
-        this.state = state;
+        this.state = NO_CODE;
+        if (state != null) {
+            Byte code = STATE_CODES.get(state);
+            this.state = code != null ? code : IRREGULAR_CODE;
+        }
+        setIrregular(STATE, this.state == IRREGULAR_CODE ? state : null);
     }
 
     /**
@@ -176,7 +291,24 @@ public class Patient implements Comparable<Patient> {
      * @return The zip code of the patient.
      */
     public String getZip() {
-        return zip;
+        if (zip == IRREGULAR_ZIP)
+            return irregular[ZIP];
+        if (zip == NO_ZIP)
+            return null;
+
+        char[] digits = new char[5];
+        for (int i = 4, value = zip; i >= 0; i--, value /= 10) {
+            digits[i] = (char) ('0' + value % 10);
+        }
+        return new String(digits);
+    }
+
+    /**
+     * Gets the zip code of the patient as a number, for comparing without creating a string.
+     * @return The five-digit zip code as a number, or -1 if the zip code is missing or not five digits.
+     */
+    public int getZipCode() {
+        return zip >= 0 ? zip : -1;
     }
 
     /**
@@ -184,7 +316,18 @@ public class Patient implements Comparable<Patient> {
      * @param zip The zip code of the patient.
      */
     public void setZip(String zip) {
-        this.zip = zip;
+        if (zip == null) {
+            this.zip = NO_ZIP;
+        } else {
+            // Five digits are stored as a number, anything else as it was given
+            int value = zip.length() == 5 ? 0 : IRREGULAR_ZIP;
+            for (int i = 0; i < zip.length() && value >= 0; i++) {
+                char c = zip.charAt(i);
+                value = c >= '0' && c <= '9' ? value * 10 + (c - '0') : IRREGULAR_ZIP;
+            }
+            this.zip = value;
+        }
+        setIrregular(ZIP, this.zip == IRREGULAR_ZIP ? zip : null);
     }
 
     /**
@@ -224,7 +367,7 @@ public class Patient implements Comparable<Patient> {
      * @return The date of the first covid-19 vaccine shot.
      */
     public String getDate1() {
-        return date1;
+        return decodeDate(date1, DATE1);
     }
 
     /**
@@ -232,7 +375,8 @@ public class Patient implements Comparable<Patient> {
      * @param date1 The date of the first covid-19 vaccine shot.
      */
     public void setDate1(String date1) {
-        this.date1 = date1;
+        this.date1 = encodeDate(date1, DATE1);
+        updateVaccinationStatus();
     }
 
     /**
@@ -240,7 +384,7 @@ public class Patient implements Comparable<Patient> {
      * @return The date of the second covid-19 vaccine shot.
      */
     public String getDate2() {
-        return date2;
+        return decodeDate(date2, DATE2);
     }
 
     /**
@@ -248,7 +392,107 @@ public class Patient implements Comparable<Patient> {
      * @param date2 The date of the second covid-19 vaccine shot.
      */
     public void setDate2(String date2) {
-        this.date2 = date2;
+        this.date2 = encodeDate(date2, DATE2);
+        updateVaccinationStatus();
+    }
+
+    /**
+     * Gets which covid-19 vaccine shots the patient has received, without looking at the dates again.
+     * @return The vaccination status of the patient.
+     */
+    public VaccinationStatus getVaccinationStatus() {
+        return vaccinationStatus;
+    }
+
+    /**
+     * Recomputes the vaccination status after a date changed.
+     */
+    private void updateVaccinationStatus() {
+        vaccinationStatus = VaccinationStatus.of(isGiven(date1), isGiven(date2));
+    }
+
+    /**
+     * Checks whether a stored date counts as a shot received: any value other than null or "0000-00-00".
+     * @param date The stored date.
+     * @return true if the shot was received.
+     */
+    private static boolean isGiven(int date) {
+        return date != NO_DATE && date != NULL_DATE;
+    }
+
+    /**
+     * Encodes a date given as "yyyy-MM-dd" as days since 1970-01-01.
+     * Any other value is kept as it is in irregular so it can be returned unchanged.
+     * @param date The date as given.
+     * @param field The position of the field in irregular.
+     * @return The stored date.
+     */
+    private int encodeDate(String date, int field) {
+        int encoded = IRREGULAR_DATE;
+        if (date == null) {
+            encoded = NULL_DATE;
+        } else if (date.equals("0000-00-00")) {
+            encoded = NO_DATE;
+        } else if (date.length() == 10 && date.charAt(4) == '-' && date.charAt(7) == '-') {
+            try {
+                LocalDate parsed = LocalDate.of(digits(date, 0, 4), digits(date, 5, 7), digits(date, 8, 10));
+                encoded = (int) parsed.toEpochDay();
+            } catch (DateTimeException | NumberFormatException e) {
+                // Not a valid date, so it is kept as given
+            }
+        }
+        setIrregular(field, encoded == IRREGULAR_DATE ? date : null);
+        return encoded;
+    }
+
+    /**
+     * Decodes a stored date back to the string it was given as.
+     * @param date The stored date.
+     * @param field The position of the field in irregular.
+     * @return The date as given.
+     */
+    private String decodeDate(int date, int field) {
+        switch (date) {
+            case NO_DATE:
+                return "0000-00-00";
+            case NULL_DATE:
+                return null;
+            case IRREGULAR_DATE:
+                return irregular[field];
+            default:
+                return LocalDate.ofEpochDay(date).toString();
+        }
+    }
+
+    /**
+     * Parses a run of ASCII digits.
+     * @param text The text holding the digits.
+     * @param from The index of the first digit.
+     * @param to The index after the last digit.
+     * @return The number.
+     * @throws NumberFormatException if a character is not a digit
+     */
+    private static int digits(String text, int from, int to) {
+        int value = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < '0' || c > '9')
+                throw new NumberFormatException(text);
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Keeps or forgets the value of a field that does not fit its compact form.
+     * @param field The position of the field in irregular.
+     * @param value The value as given, or null if the compact form holds it.
+     */
+    private void setIrregular(int field, String value) {
+        if (value != null && irregular == null)
+            irregular = new String[4];
+        if (irregular != null)
+            irregular[field] = value;
     }
 
     /**
@@ -262,21 +506,104 @@ public class Patient implements Comparable<Patient> {
                 ", lastName='" + lastName + '\'' +
                 ", address='" + address + '\'' +
                 ", city='" + city + '\'' +
-                ", state='" + state + '\'' +
-                ", zip='" + zip + '\'' +
+                ", state='" + getState() + '\'' +
+                ", zip='" + getZip() + '\'' +
                 ", phone='" + phone + '\'' +
                 ", email='" + email + '\'' +
-                ", date1='" + date1 + '\'' +
-                ", date2='" + date2 + '\'' +
+                ", date1='" + getDate1() + '\'' +
+                ", date2='" + getDate2() + '\'' +
                 '}';
     }
 
     /**
      * Returns a string representation of the Patient object in a format that can be written to a file.
+     * Fields are separated by commas, and a field containing a comma, a double quote or a line break is quoted.
      * @return A string representation of the Patient object in a format that can be written to a file.
      */
     public String toDataString() {
-        return firstName + "," + lastName + "," + address + "," + city + "," + state + "," + zip + "," + phone + "," + email + "," + date1 + "," + date2;
+        StringBuilder line = new StringBuilder(128);
+        try {
+            writeDataTo(new CsvWriter(line, ""));
+        } catch (IOException e) {
+            // A StringBuilder does not throw
+            throw new UncheckedIOException(e);
+        }
+        return line.toString();
+    }
+
+    /**
+     * Writes the Patient object as one record of a patient file, quoting any field that contains a comma,
+     * a double quote or a line break.
+     * @param out The writer to write the record to.
+     * @throws IOException if writing fails
+     */
+    public void writeDataTo(CsvWriter out) throws IOException {
+        out.field(firstName).field(lastName).field(address).field(city).field(getState()).field(getZip())
+                .field(phone).field(email).field(getDate1()).field(getDate2());
+        out.endRecord();
+    }
+
+    /**
+     * Writes the Patient object in a compact binary form that readFrom reads back.
+     * A mask of the string fields that are null and of the irregular values that are kept comes first,
+     * then each string field that is not null, then the state, zip and dates in their compact form,
+     * and last the irregular values as they were given.
+     * @param out The output to write to.
+     * @throws IOException if writing fails
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        String[] fields = {firstName, lastName, address, city, phone, email};
+        int mask = 0;
+        for (int i = 0; i < fields.length; i++) {
+            if (fields[i] == null)
+                mask |= 1 << i;
+        }
+        for (int i = 0; irregular != null && i < irregular.length; i++) {
+            if (irregular[i] != null)
+                mask |= 1 << (fields.length + i);
+        }
+        out.writeShort(mask);
+        for (String field : fields) {
+            if (field != null)
+                out.writeUTF(field);
+        }
+        out.writeByte(state);
+        out.writeInt(zip);
+        out.writeInt(date1);
+        out.writeInt(date2);
+        for (int i = 0; irregular != null && i < irregular.length; i++) {
+            if (irregular[i] != null)
+                out.writeUTF(irregular[i]);
+        }
+    }
+
+    /**
+     * Reads a Patient object written by writeTo, taking the compact fields as they are without parsing them.
+     * @param in The input to read from.
+     * @return The Patient object read.
+     * @throws IOException if reading fails
+     */
+    public static Patient readFrom(DataInput in) throws IOException {
+        int mask = in.readUnsignedShort();
+        String[] fields = new String[6];
+        for (int i = 0; i < fields.length; i++) {
+            if ((mask & 1 << i) == 0)
+                fields[i] = in.readUTF();
+        }
+        Patient patient = new Patient(fields[0], fields[1], fields[2], fields[3], fields[4], fields[5]);
+        patient.state = in.readByte();
+        patient.zip = in.readInt();
+        patient.date1 = in.readInt();
+        patient.date2 = in.readInt();
+        if (mask >>> fields.length != 0) {
+            patient.irregular = new String[4];
+            for (int i = 0; i < patient.irregular.length; i++) {
+                if ((mask & 1 << (fields.length + i)) != 0)
+                    patient.irregular[i] = in.readUTF();
+            }
+        }
+        patient.updateVaccinationStatus();
+        return patient;
     }
 
     /**
@@ -1,46 +1,485 @@
 package org.example.program10;
 
+import javafx.concurrent.Task;
+
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * This class represents a Binary Search Tree (BST) specifically for Patient objects.
  * It provides methods for loading and saving patient data from/to a file, adding, deleting, updating, and searching for patients in the BST.
  * It also provides methods for getting all patients, checking the size and emptiness of the BST, getting the depth of the BST, and performing different types of traversals on the BST.
+ * In concurrent mode one PatientBST can be shared between threads: writers take turns through a write lock,
+ * and after every change publish a snapshot of the BST, which readers use without ever locking or blocking.
  */
-public class PatientBST {
+public class PatientBST implements Iterable<Patient> {
 
     private final String FILENAME = "patients.txt";
 
+    /**
+     * The key the BST is ordered by, used to look patients up by email without creating a Patient.
+     */
+    private static final Function<Patient, String> EMAIL = Patient::getEmail;
+
+    /**
+     * The first four bytes of a file saved by saveTreeShape, "PBS2" for the format with compact patient fields.
+     */
+    private static final int SHAPE_MAGIC = 0x50425332;
+
     /**
      * The Binary Search Tree (BST) for storing Patient objects.
      */
-    private final BinarySearchTree<Patient> bst;
+    private BinarySearchTree<Patient> bst;
+
+    /**
+     * The per-column report of the last load from the patient file.
+     */
+    private String loadReport = "";
+
+    /**
+     * Whether the BST is checked for corruption after every change, for debugging.
+     */
+    private boolean debugChecks;
+
+    /**
+     * The lock writers hold while changing the BST in concurrent mode, null otherwise.
+     */
+    private final StampedLock lock;
+
+    /**
+     * The latest snapshot of the BST in concurrent mode, which readers use. Snapshots never change.
+     */
+    private volatile BinarySearchTree<Patient> published;
+
+    /**
+     * The hash index of the patients by email, or null if it is off.
+     * In concurrent mode it is only changed under the write lock, and read optimistically.
+     */
+    private volatile HashIndex<String, Patient> index;
+
+    /**
+     * The kinds of tree a PatientBST can be backed by.
+     */
+    public enum TreeType {
+        /**
+         * A plain binary search tree, which never rebalances.
+         */
+        PLAIN,
+        /**
+         * A self-balancing AVL tree, which keeps lookups at O(log n) for any insertion order.
+         */
+        BALANCED,
+        /**
+         * A self-adjusting splay tree, which moves every patient looked up to the root,
+         * so patients looked up again and again are found in a few steps.
+         * Since its searches change its shape, it is for use by a single thread only.
+         */
+        ADAPTIVE
+    }
+
+    /**
+     * The kind of tree backing this PatientBST.
+     */
+    private final TreeType treeType;
 
     /**
      * Constructor for the PatientBST class.
-     * Initializes the Binary Search Tree (BST).
+     * Initializes a balanced Binary Search Tree (BST), since the patient file is usually sorted by email.
      */
     public PatientBST() {
-        bst = new BinarySearchTree<>();
+        this(TreeType.BALANCED);
+    }
+
+    /**
+     * Constructor for the PatientBST class.
+     * Initializes the Binary Search Tree (BST) of the given type, for use by a single thread.
+     *
+     * @param treeType Whether to use a plain, a balanced or an adaptive tree.
+     */
+    public PatientBST(TreeType treeType) {
+        this(treeType, false);
+    }
+
+    /**
+     * Constructor for the PatientBST class.
+     * Initializes the Binary Search Tree (BST) of the given type.
+     *
+     * @param treeType   Whether to use a plain, a balanced or an adaptive tree.
+     * @param concurrent Whether the PatientBST will be shared between threads.
+     * @throws IllegalArgumentException if an adaptive tree is asked to be concurrent, since its searches are writes
+     */
+    public PatientBST(TreeType treeType, boolean concurrent) {
+        if (treeType == TreeType.ADAPTIVE && concurrent)
+            throw new IllegalArgumentException("An adaptive tree changes shape on every search, so it cannot be read concurrently");
+        this.treeType = treeType;
+        bst = createTree(treeType);
+        lock = concurrent ? new StampedLock() : null;
+        if (concurrent)
+            published = bst.snapshot();
+    }
+
+    /**
+     * Constructor for the PatientBST class.
+     * Wraps an existing BST, such as a snapshot, for use by a single thread.
+     *
+     * @param bst      The BST of patients.
+     * @param treeType The kind of tree bst is.
+     */
+    private PatientBST(BinarySearchTree<Patient> bst, TreeType treeType) {
+        this.bst = bst;
+        this.treeType = treeType;
+        lock = null;
+    }
+
+    /**
+     * Creates an empty BST of the given type.
+     *
+     * @param treeType The kind of tree to create.
+     * @return The new BST.
+     */
+    private static BinarySearchTree<Patient> createTree(TreeType treeType) {
+        switch (treeType) {
+            case BALANCED:
+                return new AVLTree<>();
+            case ADAPTIVE:
+                return new SplayTree<>();
+            default:
+                return new BinarySearchTree<>();
+        }
+    }
+
+    /**
+     * Checks whether the PatientBST can be shared between threads.
+     *
+     * @return true if the PatientBST is in concurrent mode.
+     */
+    public boolean isConcurrent() {
+        return lock != null;
+    }
+
+    /**
+     * Gets the BST readers should use: the BST itself, or in concurrent mode its latest published snapshot.
+     *
+     * @return The BST to read.
+     */
+    private BinarySearchTree<Patient> view() {
+        return lock == null ? bst : published;
+    }
+
+    /**
+     * Runs a change to the BST, then checks the BST if debugging.
+     * In concurrent mode the change holds the write lock and publishes a new snapshot for readers.
+     *
+     * @param writer The change to run.
+     * @return The result of the change.
+     */
+    private <T> T write(Supplier<T> writer) {
+        if (lock == null) {
+            T result = writer.get();
+            checkIfDebugging();
+            return result;
+        }
+
+        long stamp = lock.writeLock();
+        try {
+            T result = writer.get();
+            checkIfDebugging();
+            published = bst.snapshot();
+            return result;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Takes a point-in-time snapshot of the patients in O(1).
+     * The snapshot is not affected by later changes, so it can be saved or reported on while edits continue.
+     * Each later change copies only the O(log n) nodes on its path instead of the whole BST.
+     *
+     * @return A PatientBST holding the patients at this moment, for use by a single thread.
+     */
+    public PatientBST snapshot() {
+        if (lock == null)
+            return new PatientBST(bst.snapshot(), treeType);
+        return new PatientBST(published.snapshot(), treeType);
     }
 
     /**
      * Loads patient data from a file and adds them to the BST.
+     * The patients are read into a list and the BST is built from it in one pass,
+     * which is linear when the file is already sorted by email.
      */
     public void loadPatientData() throws IOException {
-        // Load patient data from file
-        try (BufferedReader br = new BufferedReader(new FileReader(FILENAME))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                // Split the line by comma and create a new patient object
-                String[] data = line.split(",");
-                Patient patient = new Patient(data[0], data[1], data[2], data[3], data[4], data[5], data[6], data[7], data[8], data[9]);
-                // Add the patient to the BST
-                bst.add(patient);
-                // Debug Statement
-                // System.out.println("Loaded patient: " + patient);
+        loadPatientData(null);
+    }
+
+    /**
+     * Loads patient data from a file and adds them to the BST, telling a listener how much of the file has been parsed.
+     * Interrupting the calling thread cancels the load and leaves the BST unchanged.
+     *
+     * @param progressListener The listener, called from the loading threads, or null for none.
+     * @throws InterruptedIOException if the calling thread is interrupted before the BST is built
+     */
+    public void loadPatientData(PatientFileLoader.ProgressListener progressListener) throws IOException {
+        loadPatientData(FILENAME, progressListener);
+    }
+
+    /**
+     * Loads patient data from the given file and adds them to the BST, telling a listener how much of the file has been parsed.
+     * Interrupting the calling thread cancels the load and leaves the BST unchanged.
+     *
+     * @param filename         The name of the file to load the patient data from.
+     * @param progressListener The listener, called from the loading threads, or null for none.
+     * @throws InterruptedIOException if the calling thread is interrupted before the BST is built
+     */
+    public void loadPatientData(String filename, PatientFileLoader.ProgressListener progressListener) throws IOException {
+        // Parse the memory-mapped file on one thread per processor
+        PatientFileLoader loader = new PatientFileLoader(Runtime.getRuntime().availableProcessors());
+        loader.setProgressListener(progressListener);
+        List<Patient> patients = loader.load(new File(filename).toPath());
+        if (Thread.currentThread().isInterrupted())
+            throw new InterruptedIOException("Loading was interrupted");
+        loadReport = loader.getReport();
+
+        // Build the BST from all the patients at once
+        // Keep any patients already in the BST, usually there are none
+        write(() -> {
+            if (!bst.isEmpty())
+                patients.addAll(0, bst.inorderTraversal());
+            bst.build(patients);
+            reindex();
+            return null;
+        });
+    }
+
+    /**
+     * Starts loading patient data from a file on a background thread, so a GUI stays responsive.
+     * The task reports the bytes parsed as its progress, and its message says what it is doing.
+     * Cancelling it interrupts the load and leaves the BST unchanged, unless the BST is already being built.
+     * The BST should not be used until the task has succeeded, when its value is this PatientBST.
+     *
+     * @return The running task.
+     */
+    public Task<PatientBST> loadPatientDataAsync() {
+        return loadPatientDataAsync(FILENAME);
+    }
+
+    /**
+     * Starts loading patient data from the given file on a background thread, in the same way as loadPatientDataAsync().
+     *
+     * @param filename The name of the file to load the patient data from.
+     * @return The running task.
+     */
+    public Task<PatientBST> loadPatientDataAsync(String filename) {
+        Task<PatientBST> task = new Task<>() {
+            @Override
+            protected PatientBST call() throws IOException {
+                updateMessage("Loading patients...");
+                loadPatientData(filename, (bytesParsed, bytesTotal) -> {
+                    updateProgress(bytesParsed, bytesTotal);
+                    if (bytesParsed == bytesTotal)
+                        updateMessage("Building the patient tree...");
+                });
+                updateMessage("Loaded " + size() + " patients");
+                return PatientBST.this;
             }
+        };
+        Thread thread = new Thread(task, "patient-loader");
+        thread.setDaemon(true);
+        thread.start();
+        return task;
+    }
+
+    /**
+     * Gets a report of the last load from the patient file: for each column whose repeated values were shared,
+     * the number of distinct values and the estimated heap saved.
+     *
+     * @return The report, one line per column, or an empty string if no file has been loaded.
+     */
+    public String getLoadReport() {
+        return loadReport;
+    }
+
+    /**
+     * Replaces the patients in the BST with the given patients.
+     * The BST is built with minimum height in one pass if the patients are sorted by email,
+     * otherwise they are sorted first.
+     *
+     * @param patients The patients to load.
+     */
+    public void loadPatients(List<Patient> patients) {
+        write(() -> {
+            bst.build(patients);
+            reindex();
+            return null;
+        });
+    }
+
+    /**
+     * Merges the patients of another PatientBST, such as one loaded from a partner file, into this one.
+     * A patient in both keeps the record from the other PatientBST.
+     * The two BSTs are combined by a parallel join-based union rather than one insertion per patient,
+     * and the other PatientBST is not changed.
+     *
+     * @param other The patients to merge in.
+     */
+    public void mergePatients(PatientBST other) {
+        BinarySearchTree<Patient> patients = other.view();
+        write(() -> {
+            bst = bst.union(patients);
+            reindex();
+            return null;
+        });
+    }
+
+    /**
+     * Gets the patients in this PatientBST or another, preferring the record from the other for a patient in both.
+     * Neither PatientBST is changed.
+     *
+     * @param other The other patients.
+     * @return A new PatientBST, for use by a single thread.
+     */
+    public PatientBST union(PatientBST other) {
+        return new PatientBST(view().union(other.view()), treeType);
+    }
+
+    /**
+     * Gets the patients in this PatientBST whose email is also in another.
+     * Neither PatientBST is changed.
+     *
+     * @param other The other patients.
+     * @return A new PatientBST, for use by a single thread.
+     */
+    public PatientBST intersection(PatientBST other) {
+        return new PatientBST(view().intersection(other.view()), treeType);
+    }
+
+    /**
+     * Gets the patients in this PatientBST whose email is not in another, such as the records missing from a partner file.
+     * Neither PatientBST is changed.
+     *
+     * @param other The other patients.
+     * @return A new PatientBST, for use by a single thread.
+     */
+    public PatientBST difference(PatientBST other) {
+        return new PatientBST(view().difference(other.view()), treeType);
+    }
+
+    /**
+     * Turns checking the BST for corruption after every change on or off.
+     * Each check is a full O(n) pass, so this is meant for testing and debugging.
+     *
+     * @param debugChecks true to check after every change.
+     */
+    public void setDebugChecks(boolean debugChecks) {
+        this.debugChecks = debugChecks;
+    }
+
+    /**
+     * Checks that the BST is correctly ordered by email and that its nodes are consistent.
+     *
+     * @throws IllegalStateException if the BST is corrupted
+     */
+    public void checkInvariants() {
+        if (lock == null) {
+            bst.checkInvariants();
+            checkIndex();
+        } else {
+            view().checkInvariants();
+        }
+    }
+
+    /**
+     * Checks the BST after a change if debug checks are turned on.
+     */
+    private void checkIfDebugging() {
+        if (debugChecks) {
+            bst.checkInvariants();
+            checkIndex();
+        }
+    }
+
+    /**
+     * Turns the hash index of patients by email on or off.
+     * With the index on, searchPatient finds a patient in O(1) instead of O(log n) email comparisons,
+     * while the BST still serves ordered traversals, ranges and saves.
+     * Every change keeps the index in sync, at the cost of memory for about 1.3 slots per patient.
+     *
+     * @param enabled true to build and keep the index, false to drop it.
+     */
+    public void setHashIndex(boolean enabled) {
+        write(() -> {
+            index = enabled ? new HashIndex<>(EMAIL) : null;
+            reindex();
+            return null;
+        });
+    }
+
+    /**
+     * Rebuilds the hash index, if it is on, from the patients in the BST after a bulk change.
+     */
+    private void reindex() {
+        if (index != null)
+            index.rebuild(bst, bst.size());
+    }
+
+    /**
+     * Rebuilds the hash index after a bulk change, if the change did anything.
+     *
+     * @param changed Whether the BST changed.
+     * @return changed.
+     */
+    private boolean reindexIfChanged(boolean changed) {
+        if (changed)
+            reindex();
+        return changed;
+    }
+
+    /**
+     * Adds or replaces a patient in the hash index, if it is on.
+     *
+     * @param patient The patient now in the BST.
+     */
+    private void indexPatient(Patient patient) {
+        if (index != null)
+            index.put(patient);
+    }
+
+    /**
+     * Removes a patient from the hash index, if it is on.
+     *
+     * @param email The email of the patient no longer in the BST.
+     */
+    private void unindexPatient(String email) {
+        if (index != null)
+            index.remove(email);
+    }
+
+    /**
+     * Checks that the hash index, if it is on, holds exactly the patients in the BST.
+     *
+     * @throws IllegalStateException if the index is out of sync
+     */
+    private void checkIndex() {
+        if (index == null)
+            return;
+        index.checkInvariants();
+        if (index.size() != bst.size())
+            throw new IllegalStateException("Index holds " + index.size() + " patients but the BST holds " + bst.size());
+        for (Patient patient : bst) {
+            if (index.get(patient.getEmail()) != patient)
+                throw new IllegalStateException("Index is out of sync for " + patient.getEmail());
         }
     }
 
@@ -50,25 +489,68 @@ public class PatientBST {
      * @param filename The name of the file to save the patient data to.
      */
     public void savePatientData(String filename) throws IOException {
+        // Save a consistent view of the patients, edits made meanwhile do not affect it
+        BinarySearchTree<Patient> patients = view();
+
         // Save patient data to file
         try (BufferedWriter bw = new BufferedWriter(new FileWriter(filename))) {
-            // Get all patients in the BST
-            List<Patient> allPatients = bst.inorderTraversal();
-            // Loop through all patients and write them to the file
-            for (Patient patient : allPatients) {
-                bw.write(patient.toDataString());
-                bw.newLine();
+            // Loop through all patients in the BST and write them to the file, quoting fields where needed
+            CsvWriter csv = new CsvWriter(bw);
+            for (Patient patient : patients) {
+                patient.writeDataTo(csv);
             }
         }
     }
 
+    /**
+     * Saves the BST to a binary file with its exact shape, for a fast restart with loadTreeShape.
+     *
+     * @param filename The name of the file to save the BST to.
+     */
+    public void saveTreeShape(String filename) throws IOException {
+        BinarySearchTree<Patient> patients = view();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16))) {
+            out.writeInt(SHAPE_MAGIC);
+            out.writeBoolean(patients instanceof AVLTree);
+            patients.writeShape(out, (output, patient) -> patient.writeTo(output));
+        }
+    }
+
+    /**
+     * Replaces the patients in the BST with those in a file saved by saveTreeShape.
+     * The BST is rebuilt node by node in the saved shape, in O(n) without comparing any emails.
+     * A file saved from a plain BST is rebuilt at minimum height instead when this PatientBST is balanced.
+     *
+     * @param filename The name of the file to load the BST from.
+     */
+    public void loadTreeShape(String filename) throws IOException {
+        BinarySearchTree<Patient> loaded = createTree(treeType);
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16))) {
+            if (in.readInt() != SHAPE_MAGIC)
+                throw new StreamCorruptedException(filename + " is not a saved patient tree");
+            boolean balanced = in.readBoolean();
+            loaded.readShape(in, Patient::readFrom);
+            if (!balanced && loaded instanceof AVLTree)
+                loaded.build(loaded.inorderTraversal());
+        }
+
+        write(() -> {
+            bst = loaded;
+            reindex();
+            return null;
+        });
+    }
+
     /**
      * Adds a new patient to the BST.
      *
      * @param firstName, lastName, address, city, state, zip, phone, email, date1, date2 The details of the patient to be added.
+     * @return true if the patient was added, false if a patient with the same email already exists.
      */
-    public void addPatient(String firstName, String lastName, String address, String city, String state, String zip, String phone, String email, String date1, String date2) {
-        bst.add(new Patient(firstName, lastName, address, city, state, zip, phone, email, date1, date2));
+    public boolean addPatient(String firstName, String lastName, String address, String city, String state, String zip, String phone, String email, String date1, String date2) {
+        return addPatient(new Patient(firstName, lastName, address, city, state, zip, phone, email, date1, date2));
     }
 
     /**
@@ -77,47 +559,182 @@ public class PatientBST {
      * @param email The email of the patient to be deleted.
      */
     public void deletePatient(String email) {
-        bst.remove(new Patient(email));
+        write(() -> {
+            Patient removed = bst.removeByKey(email, EMAIL);
+            if (removed != null)
+                unindexPatient(email);
+            return removed;
+        });
     }
 
     /**
      * Adds a new patient to the BST.
      *
      * @param patient The patient to be added.
+     * @return true if the patient was added, false if a patient with the same email already exists.
      */
-    public void addPatient(Patient patient) {
-        bst.add(patient);
+    public boolean addPatient(Patient patient) {
+        return write(() -> {
+            boolean added = bst.add(patient);
+            if (added)
+                indexPatient(patient);
+            return added;
+        });
+    }
+
+    /**
+     * Adds a batch of patients to the BST, skipping any whose email is already in it.
+     * A large batch, such as a day of corrections, is sorted and merged with the BST in one pass.
+     * The hash index, if it is on, is updated for just the patients added.
+     *
+     * @param patients The patients to be added.
+     * @return true if any patient was added.
+     */
+    public boolean addPatients(Collection<Patient> patients) {
+        return write(() -> bst.addAll(patients, this::indexPatient));
+    }
+
+    /**
+     * Deletes a batch of patients from the BST.
+     * A large batch is sorted and merged with the BST in one pass.
+     * The hash index, if it is on, is updated for just the patients deleted.
+     *
+     * @param emails The emails of the patients to be deleted.
+     * @return true if any patient was deleted.
+     */
+    public boolean deletePatients(Collection<String> emails) {
+        return write(() -> bst.removeAllByKey(emails, EMAIL, patient -> unindexPatient(patient.getEmail())));
+    }
+
+    /**
+     * Deletes every patient matching a condition, such as all patients in a decommissioned zip code.
+     * The BST is filtered in one pass and the remaining patients relinked into a balanced BST in O(n).
+     *
+     * @param filter The condition returning true for the patients to be deleted.
+     * @return true if any patient was deleted.
+     */
+    public boolean removeIf(Predicate<Patient> filter) {
+        return write(() -> reindexIfChanged(bst.removeIf(filter)));
+    }
+
+    /**
+     * Deletes every patient not matching a condition, in the same way as removeIf.
+     *
+     * @param filter The condition returning true for the patients to be kept.
+     * @return true if any patient was deleted.
+     */
+    public boolean retainIf(Predicate<Patient> filter) {
+        return write(() -> reindexIfChanged(bst.retainIf(filter)));
+    }
+
+    /**
+     * Adds a patient to the BST unless a patient with the same email already exists, in one traversal.
+     *
+     * @param patient The patient to be added.
+     * @return The existing patient with the same email, or null if the patient was added.
+     */
+    public Patient putIfAbsent(Patient patient) {
+        return write(() -> {
+            Patient existing = bst.putIfAbsent(patient);
+            if (existing == null)
+                indexPatient(patient);
+            return existing;
+        });
+    }
+
+    /**
+     * Adds a patient to the BST, replacing the patient with the same email if there is one, in one traversal.
+     *
+     * @param patient The patient to be added or replaced.
+     * @return The patient that was replaced, or null if the patient was added.
+     */
+    public Patient upsert(Patient patient) {
+        return write(() -> {
+            Patient replaced = bst.upsert(patient);
+            indexPatient(patient);
+            return replaced;
+        });
+    }
+
+    /**
+     * Computes the patient stored under an email in one traversal.
+     * The function is given the email and the current patient, or null if there is none.
+     * Returning null removes the patient, otherwise the returned patient, which must have the same email, is stored.
+     *
+     * @param email     The email of the patient.
+     * @param remapping The function computing the new patient.
+     * @return The new patient, or null if there is none.
+     */
+    public Patient compute(String email, BiFunction<String, Patient, Patient> remapping) {
+        return write(() -> {
+            Patient computed = bst.compute(email, EMAIL, remapping);
+            if (computed != null)
+                indexPatient(computed);
+            else
+                unindexPatient(email);
+            return computed;
+        });
     }
 
     /**
      * Updates the details of a patient in the BST.
+     * The stored patient with the same email is replaced by the updated one in one traversal.
      *
      * @param updatedPatient The patient with updated details.
      */
     public void updatePatient(Patient updatedPatient) {
         if (isValidPatient(updatedPatient)) {
-            Patient existingPatient = bst.search(new Patient(updatedPatient.getEmail()));
-
-            if (existingPatient != null) {
-                existingPatient.setFirstName(updatedPatient.getFirstName());
-                existingPatient.setLastName(updatedPatient.getLastName());
-                existingPatient.setAddress(updatedPatient.getAddress());
-                existingPatient.setCity(updatedPatient.getCity());
-                existingPatient.setState(updatedPatient.getState());
-                existingPatient.setZip(updatedPatient.getZip());
-                existingPatient.setPhone(updatedPatient.getPhone());
-                existingPatient.setEmail(updatedPatient.getEmail());
-                existingPatient.setDate1(updatedPatient.getDate1());
-                existingPatient.setDate2(updatedPatient.getDate2());
-            }
+            write(() -> {
+                Patient updated = bst.compute(updatedPatient.getEmail(), EMAIL,
+                        (email, existingPatient) -> existingPatient != null ? updatedPatient : null);
+                if (updated != null)
+                    indexPatient(updated);
+                return updated;
+            });
         }
     }
 
+    /**
+     * Changes the email of a patient, moving the patient to its new place in the BST in O(log n).
+     * The email is the key of the BST, so it must never be changed with setEmail while the patient is in the BST.
+     *
+     * @param oldEmail The current email of the patient.
+     * @param newEmail The new email of the patient.
+     * @return true if the email was changed, false if there is no patient with oldEmail,
+     * newEmail is not a valid email, or another patient already has newEmail.
+     */
+    public boolean changeKey(String oldEmail, String newEmail) {
+        if (!isValidEmail(newEmail))
+            return false;
+
+        return write(() -> {
+            if (oldEmail.equals(newEmail))
+                return bst.containsKey(oldEmail, EMAIL);
+            if (bst.containsKey(newEmail, EMAIL))
+                return false;
+
+            Patient patient = bst.removeByKey(oldEmail, EMAIL);
+            if (patient == null)
+                return false;
+            unindexPatient(oldEmail);
+
+            // Snapshots may still hold the patient, so a copy with the new email is added instead of changing it
+            Patient moved = new Patient(patient, newEmail);
+            bst.add(moved);
+            indexPatient(moved);
+            return true;
+        });
+    }
+
     private boolean isValidPatient(Patient patient) {
+        return isValidEmail(patient.getEmail());
+    }
+
+    private boolean isValidEmail(String email) {
         // Validate the patient email
         // Reference:
         // https://www.baeldung.com/java-email-validation-regex
-        return patient.getEmail() != null && patient.getEmail().matches("^[A-Za-z0-9+_.-]+@(.+)$");
+        return email != null && email.matches("^[A-Za-z0-9+_.-]+@(.+)$");
     }
 
     /**
@@ -127,7 +744,25 @@ public class PatientBST {
      * @return The patient if found, null otherwise.
      */
     public Patient searchPatient(String email) {
-        return bst.search(new Patient(email));
+        HashIndex<String, Patient> index = this.index;
+        if (index != null) {
+            if (lock == null)
+                return index.get(email);
+
+            // Look up without locking, and only keep the result if no write happened meanwhile
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    Patient patient = index.get(email);
+                    if (lock.validate(stamp))
+                        return patient;
+                } catch (RuntimeException e) {
+                    // The lookup saw a write half done, so the BST is searched instead
+                }
+            }
+        }
+
+        return view().searchByKey(email, EMAIL);
     }
 
     /**
@@ -136,7 +771,126 @@ public class PatientBST {
      * @return A list of all patients in the BST.
      */
     public List<Patient> getAllPatients() {
-        return bst.inorderTraversal();
+        return view().inorderTraversal();
+    }
+
+    /**
+     * Gets the position of a patient in the BST sorted by email.
+     * If no patient has the email, this is the position a patient with that email would take.
+     *
+     * @param email The email of the patient.
+     * @return The number of patients whose email sorts before the given email.
+     */
+    public int indexOf(String email) {
+        return view().rankByKey(email, EMAIL);
+    }
+
+    /**
+     * Gets the patient at a position in the BST sorted by email.
+     *
+     * @param index The zero-based position of the patient.
+     * @return The patient at that position.
+     */
+    public Patient getPatientAt(int index) {
+        return view().select(index);
+    }
+
+    /**
+     * Gets a page of patients sorted by email, without copying the whole BST.
+     *
+     * @param fromIndex The position of the first patient on the page.
+     * @param count     The maximum number of patients on the page.
+     * @return The patients at positions fromIndex to fromIndex + count - 1, fewer if the BST ends first.
+     */
+    public List<Patient> getPatients(int fromIndex, int count) {
+        BinarySearchTree<Patient> patients = view();
+        int from = Math.min(fromIndex, patients.size());
+        int toIndex = (int) Math.min((long) from + count, patients.size());
+        return patients.stream(from, Math.max(from, toIndex)).collect(Collectors.toList());
+    }
+
+    /**
+     * Gets an iterator over all patients in the BST sorted by email, without copying them.
+     *
+     * @return An iterator over the patients.
+     */
+    @Override
+    public Iterator<Patient> iterator() {
+        return view().iterator();
+    }
+
+    /**
+     * Gets a stream of all patients in the BST sorted by email, without copying them.
+     *
+     * @return A stream of the patients.
+     */
+    public Stream<Patient> stream() {
+        return view().stream();
+    }
+
+    /**
+     * Gets a parallel stream of all patients in the BST sorted by email.
+     * Aggregations over the stream are spread across the available cores.
+     *
+     * @return A parallel stream of the patients.
+     */
+    public Stream<Patient> parallelStream() {
+        return view().parallelStream();
+    }
+
+    /**
+     * Gets the patients whose email is from fromEmail up to but not including toEmail, sorted by email.
+     *
+     * @param fromEmail The lowest email in the range.
+     * @param toEmail   The email the range stops before.
+     * @return A stream of the patients in the range.
+     */
+    public Stream<Patient> range(String fromEmail, String toEmail) {
+        BinarySearchTree<Patient> patients = view();
+        int fromIndex = patients.rankByKey(fromEmail, EMAIL);
+        return patients.stream(fromIndex, Math.max(fromIndex, patients.rankByKey(toEmail, EMAIL)));
+    }
+
+    /**
+     * Gets the patients whose email sorts before toEmail, sorted by email.
+     *
+     * @param toEmail The email the patients stop before.
+     * @return A stream of the patients before toEmail.
+     */
+    public Stream<Patient> headSet(String toEmail) {
+        BinarySearchTree<Patient> patients = view();
+        return patients.stream(0, patients.rankByKey(toEmail, EMAIL));
+    }
+
+    /**
+     * Gets the patients whose email is fromEmail or sorts after it, sorted by email.
+     *
+     * @param fromEmail The lowest email.
+     * @return A stream of the patients from fromEmail on.
+     */
+    public Stream<Patient> tailSet(String fromEmail) {
+        BinarySearchTree<Patient> patients = view();
+        return patients.stream(patients.rankByKey(fromEmail, EMAIL), patients.size());
+    }
+
+    /**
+     * Gets the patients whose email starts with a prefix, for example part of an address typed by a clerk.
+     * This is the range from the prefix up to the first string that sorts after every string starting with it.
+     *
+     * @param emailPrefix The start of the email.
+     * @return A stream of the matching patients, sorted by email.
+     */
+    public Stream<Patient> prefix(String emailPrefix) {
+        // Drop trailing characters that cannot be incremented, then increment the last one
+        int end = emailPrefix.length();
+        while (end > 0 && emailPrefix.charAt(end - 1) == Character.MAX_VALUE) {
+            end--;
+        }
+        if (end == 0)
+            return tailSet(emailPrefix);
+
+        String upperBound = emailPrefix.substring(0, end - 1) + (char) (emailPrefix.charAt(end - 1) + 1);
+        return range(emailPrefix, upperBound);
     }
 
     /**
@@ -145,7 +899,7 @@ public class PatientBST {
      * @return The number of nodes (patients) in the BST.
      */
     public int size() {
-        return bst.size();
+        return view().size();
     }
 
     /**
@@ -154,7 +908,7 @@ public class PatientBST {
      * @return true if the BST is empty, false otherwise.
      */
     public boolean isEmpty() {
-        return bst.getRoot() == null;
+        return view().isEmpty();
     }
 
     /**
@@ -163,27 +917,43 @@ public class PatientBST {
      * @return The depth of the BST.
      */
     public int treeDepth() {
-        return bst.treeDepth();
+        return view().treeDepth();
     }
 
     /**
-     * Performs an in-order traversal of the BST.
+     * Performs an in-order traversal of the BST, passing each patient to an action in order of email.
+     *
+     * @param action The action to perform on each patient.
      */
-    public void traverseInOrder() {
-        bst.traverseInOrder();
+    public void forEachInOrder(Consumer<? super Patient> action) {
+        view().forEachInOrder(action);
     }
 
     /**
-     * Performs a pre-order traversal of the BST.
+     * Performs a pre-order traversal of the BST, passing each patient to an action before the patients below it.
+     *
+     * @param action The action to perform on each patient.
      */
-    public void traversePreOrder() {
-        bst.traversePreOrder();
+    public void forEachPreOrder(Consumer<? super Patient> action) {
+        view().forEachPreOrder(action);
     }
 
     /**
-     * Performs a post-order traversal of the BST.
+     * Performs a post-order traversal of the BST, passing each patient to an action after the patients below it.
+     *
+     * @param action The action to perform on each patient.
+     */
+    public void forEachPostOrder(Consumer<? super Patient> action) {
+        view().forEachPostOrder(action);
+    }
+
+    /**
+     * Writes the patients in order of email, one per line, through a buffer, for debugging.
+     *
+     * @param out Where to write the patients, such as System.out.
+     * @throws IOException if writing fails
      */
-    public void traversePostOrder() {
-        bst.traversePostOrder();
+    public void writeTo(Appendable out) throws IOException {
+        view().writeTo(out);
     }
 }
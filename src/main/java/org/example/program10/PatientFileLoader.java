@@ -0,0 +1,375 @@
+package org.example.program10;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class represents a loader that reads a patient file on several threads at once.
+ * The file is memory-mapped and cut into chunks of equal size, and the records that start in each chunk are
+ * parsed into Patient objects by CsvTokenizer on its own worker thread.
+ * The patients are returned in file order, ready to be built into a tree in one pass.
+ * Each worker shares repeated names and cities through its own StringInterner, and once all are done
+ * their dictionaries are merged into one, so equal values share one instance across the whole file,
+ * and their counts are combined into one report.
+ * The number of bytes parsed can be followed with a ProgressListener, and a load is cancelled by interrupting
+ * the thread that called load, which stops the workers as well.
+ */
+public class PatientFileLoader {
+
+    /**
+     * The smallest chunk worth handing to a worker thread.
+     */
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+
+    /**
+     * The largest chunk, which must fit in one mapping.
+     */
+    private static final long MAX_CHUNK_SIZE = 1 << 30;
+
+    /**
+     * The number of bytes mapped past the end of a chunk for its last record, which is doubled
+     * for a record longer than that.
+     */
+    private static final long MAX_RECORD_OVERRUN = 1 << 20;
+
+    /**
+     * The largest number of distinct values shared per column.
+     */
+    private static final int INTERNER_SIZE = 1 << 16;
+
+    /**
+     * The number of worker threads.
+     */
+    private final int threads;
+
+    /**
+     * The per-column report of the last load.
+     */
+    private String report = "";
+
+    /**
+     * The listener told of the progress of a load, or null.
+     */
+    private ProgressListener progressListener;
+
+    /**
+     * The number of bytes of the file being loaded that all workers have parsed so far.
+     */
+    private final AtomicLong bytesParsed = new AtomicLong();
+
+    /**
+     * The size of the file being loaded.
+     */
+    private long bytesTotal;
+
+    /**
+     * This interface represents a listener told of the progress of a load.
+     * It is called from the worker threads, so it must be thread-safe.
+     */
+    @FunctionalInterface
+    public interface ProgressListener {
+        /**
+         * Tells the listener how much of the file has been parsed.
+         *
+         * @param bytesParsed The number of bytes parsed so far.
+         * @param bytesTotal  The size of the file.
+         */
+        void progress(long bytesParsed, long bytesTotal);
+    }
+
+    /**
+     * Constructor for the PatientFileLoader class.
+     *
+     * @param threads The number of worker threads, such as the number of available processors.
+     */
+    public PatientFileLoader(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread is needed, not " + threads);
+        this.threads = threads;
+    }
+
+    /**
+     * Gets a report of the last load: for each column whose repeated values were shared,
+     * the number of distinct values and the estimated heap saved.
+     *
+     * @return The report, one line per column.
+     */
+    public String getReport() {
+        return report;
+    }
+
+    /**
+     * Sets the listener told of the progress of each load, every few thousand patients per worker.
+     *
+     * @param progressListener The listener, or null for none.
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Loads every patient in a file, one patient per record of ten comma-separated fields, as read by CsvTokenizer.
+     * Empty lines are skipped.
+     *
+     * @param file The patient file.
+     * @return The patients in the order of the file.
+     * @throws IOException            if the file cannot be read or a record is malformed
+     * @throws InterruptedIOException if the calling thread is interrupted, which cancels the load
+     */
+    public List<Patient> load(Path file) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        List<Patient> patients = new ArrayList<>();
+        int firstChunkSize = 0;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            bytesParsed.set(0);
+            bytesTotal = size;
+            long chunkSize = Math.min(MAX_CHUNK_SIZE, Math.max(MIN_CHUNK_SIZE, size / (threads * 4L) + 1));
+            for (long start = 0; start < size; start += chunkSize) {
+                chunks.add(new Chunk(channel, start, Math.min(size, start + chunkSize)));
+            }
+
+            ExecutorService workers = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, chunks.size())));
+            try {
+                List<Future<List<Patient>>> results = workers.invokeAll(chunks);
+                // Each chunk guessed that its first line starts a record. The guess is right when the chunk
+                // before it stopped there; otherwise that line break was inside a quoted field, so the chunk
+                // is parsed again from where the chunk before it stopped.
+                long next = 0;
+                for (int i = 0; i < chunks.size(); i++) {
+                    Chunk chunk = chunks.get(i);
+                    List<Patient> parsed = null;
+                    ExecutionException failure = null;
+                    try {
+                        parsed = results.get(i).get();
+                    } catch (ExecutionException e) {
+                        failure = e;
+                    }
+                    if (i > 0 && chunk.first != next) {
+                        chunk = new Chunk(channel, chunk.start, chunk.end);
+                        chunks.set(i, chunk);
+                        parsed = chunk.parseFrom(next);
+                    } else if (failure != null) {
+                        throw failure;
+                    }
+                    patients.addAll(parsed);
+                    if (i == 0)
+                        firstChunkSize = parsed.size();
+                    next = chunk.last;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Loading was interrupted");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                if (e.getCause() instanceof RuntimeException)
+                    throw (RuntimeException) e.getCause();
+                throw new IOException(e.getCause());
+            } finally {
+                workers.shutdownNow();
+            }
+        }
+
+        // Each worker shared values only within its chunk, so equal values of different chunks are made
+        // to share the instance of one dictionary merged from all of them
+        StringInterner[] interners = newInterners();
+        StringBuilder lines = new StringBuilder();
+        for (int column = 0; column < interners.length; column++) {
+            for (Chunk chunk : chunks) {
+                interners[column].merge(chunk.interners[column]);
+            }
+            lines.append(column > 0 ? "\n" : "").append(interners[column].report());
+        }
+        // The merged dictionary starts from that of the first chunk, whose patients already hold its instances
+        for (Patient patient : patients.subList(firstChunkSize, patients.size())) {
+            patient.setFirstName(interners[0].canonical(patient.getFirstName()));
+            patient.setLastName(interners[1].canonical(patient.getLastName()));
+            patient.setCity(interners[2].canonical(patient.getCity()));
+        }
+        report = lines.toString();
+        return patients;
+    }
+
+    /**
+     * Creates the dictionaries for the columns whose repeated values are shared:
+     * first name, last name and city. The state, zip and dates are stored compactly by Patient.
+     *
+     * @return The dictionaries.
+     */
+    private static StringInterner[] newInterners() {
+        return new StringInterner[]{
+                new StringInterner("firstName", INTERNER_SIZE),
+                new StringInterner("lastName", INTERNER_SIZE),
+                new StringInterner("city", INTERNER_SIZE)};
+    }
+
+    /**
+     * This class represents the parsing of the records that start in one range of the file, run on a worker thread.
+     * The worker cannot know whether a line break near the start of its range is inside a quoted field
+     * without reading the file from the beginning, so it guesses that the first line in its range starts a record.
+     * It parses on past the end of its range to finish its last record, and the position where it stops is
+     * where the next chunk must start; load checks the guesses against these positions.
+     */
+    private class Chunk implements Callable<List<Patient>> {
+        /**
+         * The number of patients parsed between checks for interruption and reports of progress.
+         */
+        private static final int PROGRESS_INTERVAL = 4096;
+
+        /**
+         * The file.
+         */
+        private final FileChannel channel;
+
+        /**
+         * The start of the range of the chunk.
+         */
+        private final long start;
+
+        /**
+         * The end of the range of the chunk. The last record starts before it.
+         */
+        private final long end;
+
+        /**
+         * The position of the first record parsed, or -1 before parsing.
+         */
+        private long first = -1;
+
+        /**
+         * The position of the first record not parsed, at or after the end of the range.
+         */
+        private long last;
+
+        /**
+         * The dictionaries of the worker for first names, last names and cities.
+         */
+        private final StringInterner[] interners = newInterners();
+
+        Chunk(FileChannel channel, long start, long end) {
+            this.channel = channel;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public List<Patient> call() throws IOException {
+            // Skip to the first line that starts in the range
+            return parse(Math.max(0, start - 1), start > 0);
+        }
+
+        /**
+         * Parses the records of the chunk starting at a position known to start a record.
+         *
+         * @param position The start of the first record.
+         * @return The patients.
+         * @throws IOException if the file cannot be read or a record is malformed
+         */
+        List<Patient> parseFrom(long position) throws IOException {
+            return parse(position, false);
+        }
+
+        /**
+         * Maps the file from a position to a little past the end of the range, and parses every record that
+         * starts before the end of the range.
+         * Only the last record may run on past the range, so the mapping holds MAX_RECORD_OVERRUN bytes more;
+         * when a record runs past even that, the mapping is doubled and the chunk is parsed again.
+         *
+         * @param offset   The position in the file to map from.
+         * @param skipLine true to skip to the first line break before parsing.
+         * @return The patients.
+         * @throws IOException if the file cannot be read or a record is malformed
+         */
+        private List<Patient> parse(long offset, boolean skipLine) throws IOException {
+            // A long record of the chunk before can end past the whole range, leaving no record to start in it
+            if (offset >= end) {
+                first = last = offset;
+                return new ArrayList<>();
+            }
+            for (long overrun = MAX_RECORD_OVERRUN; ; overrun *= 2) {
+                long length = Math.min(bytesTotal, end + overrun) - offset;
+                MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(length, Integer.MAX_VALUE));
+                boolean whole = offset + bytes.limit() == bytesTotal;
+                try {
+                    if (skipLine) {
+                        while (bytes.hasRemaining() && bytes.get() != '\n') {
+                        }
+                    }
+                    List<Patient> patients = parse(bytes, offset);
+                    // The last record ended at a line break inside the mapping, so it is whole
+                    if (whole || bytes.hasRemaining())
+                        return patients;
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    // The last record may only look malformed because the mapping cut it short
+                    if (whole)
+                        throw e;
+                }
+                if (length > Integer.MAX_VALUE)
+                    throw new IOException("A patient record starting before " + end + " is too long to map");
+            }
+        }
+
+        /**
+         * Parses every record that starts before the end of the range.
+         *
+         * @param bytes  The mapped bytes, positioned at the first record.
+         * @param offset The position in the file of the start of the mapped bytes.
+         * @return The patients.
+         * @throws IOException if a record is malformed
+         */
+        private List<Patient> parse(MappedByteBuffer bytes, long offset) throws IOException {
+            List<Patient> patients = new ArrayList<>();
+            CsvTokenizer tokenizer = new CsvTokenizer(bytes);
+            String[] data = new String[10];
+            long limit = end - offset;
+            int reported = 0;
+            tokenizer.hasNext();
+            first = offset + bytes.position();
+            while (tokenizer.hasNext() && bytes.position() < limit) {
+                if (patients.size() % PROGRESS_INTERVAL == 0) {
+                    if (Thread.currentThread().isInterrupted())
+                        throw new InterruptedIOException("Loading was interrupted");
+                    reported = reportProgress(bytes, reported);
+                }
+                int count = tokenizer.next(data);
+                if (count != data.length)
+                    throw new IOException("A patient record has " + count + " fields instead of " + data.length + ", starting with " + data[0]);
+                patients.add(new Patient(interners[0].intern(data[0]), interners[1].intern(data[1]), data[2], interners[2].intern(data[3]),
+                        data[4], data[5], data[6], data[7], data[8], data[9]));
+            }
+            last = offset + bytes.position();
+            reportProgress(bytes, reported);
+            return patients;
+        }
+
+        /**
+         * Adds the bytes parsed since the last report to the total and tells the listener, if there is one.
+         * Bytes read by two chunks are counted twice, so the total is capped at the size of the file.
+         *
+         * @param bytes    The mapped bytes being parsed.
+         * @param reported The number of mapped bytes already reported.
+         * @return The number of mapped bytes reported now.
+         */
+        private int reportProgress(MappedByteBuffer bytes, int reported) {
+            long parsed = bytesParsed.addAndGet(bytes.position() - reported);
+            if (progressListener != null)
+                progressListener.progress(Math.min(parsed, bytesTotal), bytesTotal);
+            return bytes.position();
+        }
+    }
+}
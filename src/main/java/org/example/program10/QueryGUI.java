@@ -2,6 +2,7 @@ package org.example.program10;
 
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
+import javafx.concurrent.Task;
 import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.scene.Scene;
@@ -13,6 +14,7 @@ import javafx.stage.Stage;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.stream.Collectors;
 
 // Query Requirements
 /*
@@ -65,6 +67,16 @@ public class QueryGUI{
      * @param patientBST The PatientBST object to be queried.
      */
     public QueryGUI(PatientBST patientBST) {
+        this(patientBST, null);
+    }
+
+    /**
+     * Constructor for the QueryGUI class, for a PatientBST that is still loading.
+     * The stage is shown at once with the progress of the load, and searching is enabled once it has loaded.
+     * @param patientBST The PatientBST object to be queried.
+     * @param loading    The task loading the patient data into patientBST, or null if it is already loaded.
+     */
+    public QueryGUI(PatientBST patientBST, Task<?> loading) {
         // Initialize the patientBST
         this.patientBST = patientBST;
 
@@ -123,6 +135,16 @@ public class QueryGUI{
 
         VBox vBox = new VBox(gridPane);
         vBox.setAlignment(Pos.CENTER);
+
+        // Show the progress of the load, the search waits until the patients are loaded
+        if (loading != null && !loading.isDone()) {
+            searchButton.setDisable(true);
+            loading.setOnSucceeded(e -> searchButton.setDisable(false));
+            vBox.getChildren().add(0, new LoadingPane(loading));
+            // Stop loading if the window is closed first
+            stage.setOnHidden(e -> loading.cancel());
+        }
+
         Scene scene = new Scene(vBox, 900, 600);
         stage.setScene(scene);
         stage.show();
@@ -180,33 +202,36 @@ public class QueryGUI{
             resultArea.setText("No patients in the database.");
             return;
         }
-        // Retrieve all patients from the BST
-        List<Patient> allPatients = patientBST.getAllPatients();
-
-        // Initialize the list for filtered patients
-        List<Patient> patients = new ArrayList<>();
+        // Filter the patients in the BST that match the search criteria, spread across the available cores
+        // A zip code is compared as a number, so no string is created per patient
+        boolean byState = searchType.equals("State");
+        int zipCode = byState ? -1 : Integer.parseInt(searchValue);
+        List<Patient> patients = patientBST.parallelStream()
+                .filter(patient -> byState ? searchValue.equals(patient.getState()) : patient.getZipCode() == zipCode)
+                .collect(Collectors.toList());
 
         // Initialize the lists for each category
         List<Patient> firstShotOnly = new ArrayList<>();
         List<Patient> noShots = new ArrayList<>();
         List<Patient> bothShots = new ArrayList<>();
 
-        // Iterate over all patients and add them to the filtered list if they match the search criteria
-        for (Patient patient : allPatients) {
-            // Check if the patient matches the search criteria
-            if ((searchType.equals("State") && patient.getState().equals(searchValue)) ||
-                    (searchType.equals("Zip") && patient.getZip().equals(searchValue))) {
-                patients.add(patient);
-
-                // Add the patient to the appropriate category list
-                // based on their inoculation status
-                if (patient.getDate1() != null && !patient.getDate1().equals("0000-00-00") && (patient.getDate2() == null || patient.getDate2().equals("0000-00-00"))) {
+        // Iterate over the matching patients
+        for (Patient patient : patients) {
+            // Add the patient to the appropriate category list
+            // based on their inoculation status, which each patient keeps up to date
+            switch (patient.getVaccinationStatus()) {
+                case FIRST_ONLY:
                     firstShotOnly.add(patient);
-                } else if ((patient.getDate1() == null || patient.getDate1().equals("0000-00-00")) && (patient.getDate2() == null || patient.getDate2().equals("0000-00-00"))) {
+                    break;
+                case NONE:
                     noShots.add(patient);
-                } else if (patient.getDate1() != null && !patient.getDate1().equals("0000-00-00") && patient.getDate2() != null && !patient.getDate2().equals("0000-00-00")) {
+                    break;
+                case BOTH:
                     bothShots.add(patient);
-                }
+                    break;
+                default:
+                    // A second shot without a first is not counted
+                    break;
             }
         }
 
@@ -8,13 +8,11 @@ import javafx.scene.layout.GridPane;
 import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
-import java.io.IOException;
-
 /**
  * This class represents the GUI for selecting the operation to be performed on the patient data.
  * It provides a user interface with two buttons: "Search Patient" and "Query Data".
- * The "Search Patient" button loads the patient data and opens the HealthGUI.
- * The "Query Data" button loads the patient data and opens the QueryGUI.
+ * The "Search Patient" button opens the HealthGUI and the "Query Data" button opens the QueryGUI,
+ * each loading the patient data in the background so the window opens at once.
  */
 public class SelectionGUI {
     private final Stage stage;
@@ -49,22 +47,12 @@ public class SelectionGUI {
 
     /**
      * Adds the "Search Patient" button to the GUI.
-     * When this button is clicked, it loads the patient data and opens the HealthGUI.
+     * When this button is clicked, it opens the HealthGUI, which loads the patient data in the background.
      */
     private void addSearchPatientButton() {
         searchPatientButton = new Button("Search Patient");
         searchPatientButton.setOnAction(e -> {
-            PatientBST patientBST = new PatientBST();
-            try {
-                patientBST.loadPatientData();
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            }
-            try {
-                HealthGUI healthGUI = new HealthGUI(new VBox());
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            }
+            HealthGUI healthGUI = new HealthGUI(new VBox());
             stage.close();
         });
         gridPane.add(searchPatientButton, 0, 0);
@@ -72,18 +60,14 @@ public class SelectionGUI {
 
     /**
      * Adds the "Query Data" button to the GUI.
-     * When this button is clicked, it loads the patient data and opens the QueryGUI.
+     * When this button is clicked, it starts loading the patient data in the background and opens the QueryGUI,
+     * which shows the progress of the load.
      */
     private void addQueryDataButton() {
         queryDataButton = new Button("Query Data");
         queryDataButton.setOnAction(e -> {
             PatientBST patientBST = new PatientBST();
-            try {
-                patientBST.loadPatientData();
-            } catch (IOException ex) {
-                throw new RuntimeException(ex);
-            }
-            QueryGUI queryGUI = new QueryGUI(patientBST);
+            QueryGUI queryGUI = new QueryGUI(patientBST, patientBST.loadPatientDataAsync());
             stage.close();
         });
         gridPane.add(queryDataButton, 1, 0);
@@ -0,0 +1,158 @@
+package org.example.program10;
+
+import java.util.function.Function;
+
+/**
+ * This class represents a self-adjusting splay tree.
+ * It has the same public API as BinarySearchTree, but every search, add and putIfAbsent moves the value found,
+ * added or already there to the root by a series of rotations (splaying); a search that misses splays the last node it reached.
+ * Values that are looked up often therefore stay near the root, so a skewed workload such as the same
+ * few thousand patients looked up again and again is served in a few steps, whatever the size of the tree.
+ * Other changes, such as remove, upsert, compute and the batch operations, use the plain descents of BinarySearchTree and do not splay,
+ * so no amortized bound is claimed for a mix of operations; a single operation may cost O(n).
+ * Since searches change the shape of the tree, a search ends any iteration over the tree in progress,
+ * and a splay tree must not be searched by several threads at once.
+ *
+ * @param <ItemType> the type of the data to be stored in the tree
+ */
+public class SplayTree<ItemType extends Comparable<ItemType>> extends BinarySearchTree<ItemType> {
+
+    /**
+     * Checks to see if a value is in the tree, moving it to the root if it is.
+     *
+     * @param searchTarget The value to check for.
+     * @return true if searchTarget is in the tree, false otherwise.
+     */
+    @Override
+    public boolean contains(ItemType searchTarget) {
+        return containsKey(searchTarget, Function.identity());
+    }
+
+    /**
+     * Checks to see if a value with the given key is in the tree, moving it to the root if it is.
+     *
+     * @param key   The key to check for.
+     * @param keyOf The function extracting the key from a value, consistent with the ordering of the tree.
+     * @param <K>   The type of the key.
+     * @return true if a value with the key is in the tree, false otherwise.
+     */
+    @Override
+    public <K extends Comparable<? super K>> boolean containsKey(K key, Function<? super ItemType, ? extends K> keyOf) {
+        return splay(key, keyOf) != null;
+    }
+
+    /**
+     * Searches for the value with the given key, moving it to the root if it is found.
+     *
+     * @param key   The key to search for.
+     * @param keyOf The function extracting the key from a value, consistent with the ordering of the tree.
+     * @param <K>   The type of the key.
+     * @return The value if found, null otherwise.
+     */
+    @Override
+    public <K extends Comparable<? super K>> ItemType searchByKey(K key, Function<? super ItemType, ? extends K> keyOf) {
+        Node found = splay(key, keyOf);
+        return found != null ? found.value : null;
+    }
+
+    /**
+     * Adds an item to the tree unless an equal item is already in it, then moves the item to the root.
+     *
+     * @param newItem The value to add to the tree.
+     * @return The equal item already in the tree, or null if newItem was added.
+     */
+    @Override
+    public ItemType putIfAbsent(ItemType newItem) {
+        ItemType existing = super.putIfAbsent(newItem);
+        splay(newItem, Function.identity());
+        return existing;
+    }
+
+    /**
+     * Takes a snapshot of the tree in O(1), as BinarySearchTree.snapshot does.
+     *
+     * @return A splay tree holding the same values.
+     */
+    @Override
+    @SuppressWarnings("unchecked")
+    public SplayTree<ItemType> snapshot() {
+        return (SplayTree<ItemType>) super.snapshot();
+    }
+
+    /**
+     * The splay method finds the node with a key and moves it to the root,
+     * or moves the last node reached to the root if the key is not in the tree.
+     * The path down to the node is recorded, then the node is rotated up it two levels at a time:
+     * above a parent on the same side as itself the grandparent is rotated first (zig-zig),
+     * otherwise the parent is (zig-zag), which roughly halves the depth of every node on the path.
+     *
+     * @param key   The key to search for.
+     * @param keyOf The function extracting the key from a value.
+     * @param <K>   The type of the key.
+     * @return The node holding the key, now the root, or null if the key is not in the tree.
+     */
+    private <K extends Comparable<? super K>> Node splay(K key, Function<? super ItemType, ? extends K> keyOf) {
+        Node node = getRoot();
+        int depth = 0;
+        while (node != null) {
+            int comparison = key.compareTo(keyOf.apply(node.value));
+            if (comparison == 0)
+                break;
+            push(depth++, node, comparison < 0);
+            node = comparison < 0 ? node.left : node.right;
+        }
+        boolean found = node != null;
+        if (!found && depth > 0) {
+            // A miss splays the last node reached, so a long unsuccessful descent also shortens the path
+            node = path[--depth];
+            path[depth] = null;
+        }
+        if (depth == 0)
+            return found ? node : null;
+
+        for (; depth >= 2; depth -= 2) {
+            boolean parentLeft = wentLeft[depth - 1];
+            boolean grandparentLeft = wentLeft[depth - 2];
+            Node parent = link(path[depth - 1], parentLeft, node);
+            Node grandparent = link(path[depth - 2], grandparentLeft, parent);
+            path[depth - 1] = null;
+            path[depth - 2] = null;
+
+            if (parentLeft == grandparentLeft) {
+                node = parentLeft ? rotateRight(rotateRight(grandparent)) : rotateLeft(rotateLeft(grandparent));
+            } else if (grandparentLeft) {
+                grandparent.left = rotateLeft(parent);
+                node = rotateRight(grandparent);
+            } else {
+                grandparent.right = rotateRight(parent);
+                node = rotateLeft(grandparent);
+            }
+        }
+
+        if (depth == 1) {
+            Node parent = link(path[0], wentLeft[0], node);
+            path[0] = null;
+            node = wentLeft[0] ? rotateRight(parent) : rotateLeft(parent);
+        }
+
+        setRoot(node);
+        return found ? node : null;
+    }
+
+    /**
+     * Links a new child subtree to a node on the path, copying the node if it is shared with a snapshot.
+     *
+     * @param node  The node on the path.
+     * @param left  Whether the child is the left one.
+     * @param child The new child subtree.
+     * @return The node, or its copy.
+     */
+    private Node link(Node node, boolean left, Node child) {
+        node = writable(node);
+        if (left)
+            node.left = child;
+        else
+            node.right = child;
+        return node;
+    }
+}
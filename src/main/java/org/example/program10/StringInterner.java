@@ -0,0 +1,178 @@
+package org.example.program10;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * This class represents a dictionary that makes repeated values of one column share a single String instance.
+ * Unlike String.intern it belongs to one load and is dropped with it, and it holds at most a fixed number
+ * of distinct values, so a column with more values than expected costs a bounded amount of memory;
+ * values seen after it is full are returned unchanged.
+ * It counts the values it sees and estimates the heap saved, for a report after the load.
+ * It is not thread-safe.
+ */
+public class StringInterner {
+
+    /**
+     * The name of the column, used in the report.
+     */
+    private final String column;
+
+    /**
+     * The largest number of distinct values kept.
+     */
+    private final int maxSize;
+
+    /**
+     * The shared instance of each distinct value seen, with its estimated size.
+     */
+    private final Map<String, Shared> pool = new HashMap<>();
+
+    /**
+     * The number of values seen, and how many of them were replaced by a shared instance.
+     */
+    private long values, hits;
+
+    /**
+     * The estimated number of bytes of heap saved by sharing instances.
+     */
+    private long bytesSaved;
+
+    /**
+     * Constructor for the StringInterner class.
+     *
+     * @param column  The name of the column, used in the report.
+     * @param maxSize The largest number of distinct values to keep.
+     */
+    public StringInterner(String column, int maxSize) {
+        this.column = column;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Gets the shared instance of a value, making the value the shared instance if it is new and there is room.
+     *
+     * @param value The value, which may be null.
+     * @return An equal String, the same instance for every equal value while the dictionary has room.
+     */
+    public String intern(String value) {
+        if (value == null)
+            return null;
+
+        values++;
+        Shared shared = pool.get(value);
+        if (shared != null) {
+            hits++;
+            bytesSaved += shared.size;
+            return shared.value;
+        }
+        if (pool.size() < maxSize)
+            pool.put(value, new Shared(value));
+        return value;
+    }
+
+    /**
+     * Adds the counts of another dictionary for the same column, such as one used by another loading thread,
+     * and its distinct values while there is room.
+     * A distinct value of the other dictionary that this one already holds is counted as shared,
+     * since the values the other returned can be replaced by this one's instance through canonical.
+     *
+     * @param other The other dictionary.
+     */
+    public void merge(StringInterner other) {
+        values += other.values;
+        hits += other.hits;
+        bytesSaved += other.bytesSaved;
+        for (Map.Entry<String, Shared> entry : other.pool.entrySet()) {
+            Shared shared = pool.get(entry.getKey());
+            if (shared != null) {
+                if (shared.value != entry.getValue().value) {
+                    hits++;
+                    bytesSaved += shared.size;
+                }
+            } else if (pool.size() < maxSize) {
+                pool.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Gets the shared instance of a value without counting it, such as to replace a value returned by
+     * a dictionary merged into this one.
+     *
+     * @param value The value, which may be null.
+     * @return The shared instance of the value, or the value itself if this dictionary does not hold it.
+     */
+    public String canonical(String value) {
+        if (value == null)
+            return null;
+        Shared shared = pool.get(value);
+        return shared != null ? shared.value : value;
+    }
+
+    /**
+     * Gets the number of distinct values seen, up to the size of the dictionary.
+     *
+     * @return The number of distinct values kept.
+     */
+    public int cardinality() {
+        return pool.size();
+    }
+
+    /**
+     * Gets the estimated number of bytes of heap saved by sharing instances.
+     *
+     * @return The bytes saved.
+     */
+    public long bytesSaved() {
+        return bytesSaved;
+    }
+
+    /**
+     * Describes the cardinality of the column and the heap saved, such as "city: 812 distinct in 100000 values, 4.1 MB saved".
+     * A "+" after the number of distinct values means the dictionary filled up and more values were not shared.
+     *
+     * @return The report for the column.
+     */
+    public String report() {
+        return String.format("%s: %d%s distinct in %d values, %d shared, %.1f MB saved",
+                column, pool.size(), pool.size() == maxSize ? "+" : "", values, hits, bytesSaved / 1e6);
+    }
+
+    /**
+     * Estimates the heap used by a String: the String object and its byte array,
+     * one byte per character if every character is Latin-1 and two otherwise, rounded up to 8 bytes each.
+     *
+     * @param value The String.
+     * @return The estimated size in bytes.
+     */
+    private static int sizeOf(String value) {
+        int bytesPerChar = 1;
+        for (int i = 0; i < value.length() && bytesPerChar == 1; i++) {
+            if (value.charAt(i) >= 256)
+                bytesPerChar = 2;
+        }
+        int array = (16 + value.length() * bytesPerChar + 7) & ~7;
+        return 24 + array;
+    }
+
+    /**
+     * This class represents the shared instance of a value, with its size computed once when it enters the dictionary.
+     */
+    private static final class Shared {
+        /**
+         * The shared instance.
+         */
+        final String value;
+
+        /**
+         * The estimated size of each instance replaced by the shared one.
+         */
+        final int size;
+
+        Shared(String value) {
+            this.value = value;
+            this.size = sizeOf(value);
+        }
+    }
+}
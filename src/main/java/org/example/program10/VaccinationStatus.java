@@ -0,0 +1,40 @@
+package org.example.program10;
+
+/**
+ * This enum represents which of the two covid-19 vaccine shots a patient has received.
+ * A shot counts as received when its date is given, that is neither missing nor "0000-00-00".
+ */
+public enum VaccinationStatus {
+    /**
+     * Neither shot has been received.
+     */
+    NONE,
+    /**
+     * The first shot has been received but not the second.
+     */
+    FIRST_ONLY,
+    /**
+     * Only the second shot has a date, which the queries do not count in any group.
+     */
+    SECOND_ONLY,
+    /**
+     * Both shots have been received.
+     */
+    BOTH;
+
+    /**
+     * The statuses indexed by one bit for the first shot and one bit for the second.
+     */
+    private static final VaccinationStatus[] BY_SHOTS = values();
+
+    /**
+     * Gets the status for the shots received.
+     *
+     * @param first  Whether the first shot has been received.
+     * @param second Whether the second shot has been received.
+     * @return The vaccination status.
+     */
+    static VaccinationStatus of(boolean first, boolean second) {
+        return BY_SHOTS[(first ? 1 : 0) | (second ? 2 : 0)];
+    }
+}
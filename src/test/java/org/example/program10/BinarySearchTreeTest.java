@@ -0,0 +1,471 @@
+package org.example.program10;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for BinarySearchTree and its AVLTree and SplayTree subclasses.
+ */
+class BinarySearchTreeTest {
+
+    /**
+     * Set operations with a plain tree of minimum height that does not meet the AVL condition
+     * must still give an AVLTree that passes its own invariant check.
+     */
+    @Test
+    void setOperationsWithUnbalancedPlainTreeKeepAVLCondition() {
+        Random random = new Random(14);
+        int tested = 0;
+        while (tested < 50) {
+            BinarySearchTree<Integer> plain = new BinarySearchTree<>();
+            int count = 4 + random.nextInt(30);
+            for (int i = 0; i < count; i++)
+                plain.add(random.nextInt(100));
+            if (plain.treeDepth() + 1 != 32 - Integer.numberOfLeadingZeros(plain.size()))
+                continue;
+            tested++;
+
+            AVLTree<Integer> empty = new AVLTree<>();
+            AVLTree<Integer> other = new AVLTree<>();
+            other.add(-5);
+            other.add(1000);
+
+            BinarySearchTree<Integer> union = empty.union(plain);
+            union.checkInvariants();
+            assertEquals(plain.size(), union.size());
+            other.union(plain).checkInvariants();
+            other.intersection(plain).checkInvariants();
+            other.difference(plain).checkInvariants();
+        }
+    }
+
+    /**
+     * A sorted batch added to an empty or one-value plain tree must be merged into a tree of minimum height,
+     * not added one value at a time into a chain.
+     */
+    @Test
+    void addAllToSmallPlainTreeBuildsMinimumHeight() {
+        List<Integer> batch = new ArrayList<>();
+        for (int i = 1; i <= 20000; i++)
+            batch.add(i);
+
+        BinarySearchTree<Integer> empty = new BinarySearchTree<>();
+        assertTrue(empty.addAll(batch));
+        assertEquals(20000, empty.size());
+        assertEquals(15, empty.treeDepth() + 1);
+
+        BinarySearchTree<Integer> single = new BinarySearchTree<>();
+        single.add(0);
+        assertTrue(single.addAll(batch));
+        assertEquals(20001, single.size());
+        assertEquals(15, single.treeDepth() + 1);
+        single.checkInvariants();
+    }
+
+    /**
+     * A splay tree moves a value found or added to the root, and on a miss the last node reached,
+     * while staying a valid search tree through random operations.
+     */
+    @Test
+    void splayTreeMovesSearchedAndLastReachedNodesToRoot() {
+        SplayTree<Integer> tree = new SplayTree<>();
+        for (int i = 0; i < 1000; i += 2)
+            tree.add(i);
+
+        assertTrue(tree.contains(500));
+        assertEquals(500, tree.getRoot().value);
+        assertFalse(tree.contains(3));
+        int root = tree.getRoot().value;
+        assertTrue(root == 2 || root == 4, "root " + root);
+        assertFalse(tree.contains(-1));
+        assertEquals(0, tree.getRoot().value);
+        assertTrue(tree.add(501));
+        assertEquals(501, tree.getRoot().value);
+        assertFalse(tree.add(500));
+        assertEquals(500, tree.getRoot().value);
+        tree.checkInvariants();
+
+        Random random = new Random(19);
+        for (int i = 0; i < 20000; i++) {
+            int value = random.nextInt(2000);
+            switch (random.nextInt(3)) {
+                case 0 -> tree.add(value);
+                case 1 -> tree.remove(value);
+                default -> tree.contains(value);
+            }
+        }
+        tree.checkInvariants();
+    }
+
+    /**
+     * Random adds and removes must keep an AVLTree within the AVL height bound of 1.44 log2(n + 2),
+     * passing checkNode and holding the same values as a TreeSet, and sorted adds must not make it a chain.
+     */
+    @Test
+    void avlTreeStaysBalancedThroughRandomAddsAndRemoves() {
+        Random random = new Random(1);
+        AVLTree<Integer> tree = new AVLTree<>();
+        TreeSet<Integer> expected = new TreeSet<>();
+        for (int i = 0; i < 50000; i++) {
+            int value = random.nextInt(5000);
+            if (random.nextInt(3) == 0)
+                assertEquals(expected.remove(value), tree.remove(value));
+            else
+                assertEquals(expected.add(value), tree.add(value));
+            if (i % 5000 == 0)
+                tree.checkInvariants();
+        }
+        tree.checkInvariants();
+        assertEquals(new ArrayList<>(expected), tree.inorderTraversal());
+        assertTrue(tree.treeDepth() + 1 <= avlHeightBound(tree.size()));
+
+        AVLTree<Integer> sorted = new AVLTree<>();
+        for (int i = 0; i < 1 << 16; i++)
+            assertTrue(sorted.add(i));
+        sorted.checkInvariants();
+        assertTrue(sorted.treeDepth() + 1 <= avlHeightBound(sorted.size()));
+    }
+
+    /**
+     * checkInvariants must report a node whose height is wrong, and in an AVLTree a node whose subtrees
+     * differ in height by more than one.
+     */
+    @Test
+    void checkInvariantsFindsBrokenNodes() {
+        BinarySearchTree<Integer> plain = new BinarySearchTree<>();
+        for (int value : new int[]{2, 1, 3})
+            plain.add(value);
+        plain.getRoot().height = 5;
+        assertThrows(IllegalStateException.class, plain::checkInvariants);
+
+        AVLTree<Integer> avl = new AVLTree<>();
+        for (int i = 1; i <= 7; i++)
+            avl.add(i);
+        avl.checkInvariants();
+        // Drop the left subtree of the root, keeping the height and size of the root correct
+        BinarySearchTree<Integer>.Node root = avl.getRoot();
+        root.left = null;
+        root.size = 4;
+        assertThrows(IllegalStateException.class, avl::checkInvariants);
+    }
+
+    /**
+     * Gets the greatest height an AVL tree of n values may have, 1.4405 log2(n + 2) - 0.3277.
+     *
+     * @param n The number of values.
+     * @return The height bound.
+     */
+    private static double avlHeightBound(int n) {
+        return 1.4405 * Math.log(n + 2) / Math.log(2) - 0.3277;
+    }
+
+    /**
+     * size, rank, rankByKey and select must agree with a sorted list of the values, in plain and AVL trees,
+     * for values in the tree and between them.
+     */
+    @Test
+    void rankAndSelectMatchSortedList() {
+        Random random = new Random(3);
+        for (BinarySearchTree<Integer> tree : List.of(new BinarySearchTree<Integer>(), new AVLTree<Integer>())) {
+            TreeSet<Integer> values = new TreeSet<>();
+            for (int i = 0; i < 3000; i++) {
+                int value = random.nextInt(10000) * 2;
+                tree.add(value);
+                values.add(value);
+            }
+            for (int i = 0; i < 1000; i++) {
+                int value = random.nextInt(10000) * 2;
+                assertEquals(values.remove(value), tree.remove(value));
+            }
+            List<Integer> sorted = new ArrayList<>(values);
+            assertEquals(sorted.size(), tree.size());
+
+            for (int i = 0; i < sorted.size(); i++) {
+                assertEquals(sorted.get(i), tree.select(i));
+                assertEquals(i, tree.rank(sorted.get(i)));
+                // An odd value is never in the tree, so it ranks where it would be inserted
+                int missing = sorted.get(i) + 1;
+                assertEquals(i + 1, tree.rank(missing));
+                assertEquals(i + 1, tree.rankByKey((long) missing, Integer::longValue));
+            }
+            assertEquals(0, tree.rank(-1));
+            assertThrows(IndexOutOfBoundsException.class, () -> tree.select(-1));
+            assertThrows(IndexOutOfBoundsException.class, () -> tree.select(sorted.size()));
+        }
+    }
+
+    /**
+     * build must give a tree of minimum height holding the items, whether or not they come sorted,
+     * replace what the tree held before, and keep only the last of several equal items.
+     */
+    @Test
+    void buildFromSortedAndUnsortedItems() {
+        List<Integer> sorted = new ArrayList<>();
+        for (int i = 0; i < 10000; i++)
+            sorted.add(i);
+        List<Integer> shuffled = new ArrayList<>(sorted);
+        Collections.shuffle(shuffled, new Random(4));
+
+        for (List<Integer> items : List.of(sorted, shuffled)) {
+            for (BinarySearchTree<Integer> tree : List.of(new BinarySearchTree<Integer>(), new AVLTree<Integer>())) {
+                tree.add(-1);
+                tree.build(items);
+                tree.checkInvariants();
+                assertEquals(sorted, tree.inorderTraversal());
+                assertEquals(14, tree.treeDepth() + 1);
+            }
+        }
+
+        BinarySearchTree<Patient> patients = new BinarySearchTree<>();
+        Patient first = PatientBSTTest.patient("b@x.com");
+        Patient last = PatientBSTTest.patient("b@x.com");
+        patients.build(List.of(PatientBSTTest.patient("c@x.com"), first, PatientBSTTest.patient("a@x.com"), last));
+        assertEquals(3, patients.size());
+        assertSame(last, patients.select(1));
+
+        patients.build(List.of());
+        assertTrue(patients.isEmpty());
+    }
+
+    /**
+     * The iterator must walk the values in order, then report that it has ended,
+     * and fail fast if the tree changes during the walk.
+     */
+    @Test
+    void iteratorWalksInOrderAndFailsFast() {
+        BinarySearchTree<Integer> tree = new AVLTree<>();
+        for (int value : new int[]{5, 3, 8, 1, 4, 9})
+            tree.add(value);
+
+        List<Integer> walked = new ArrayList<>();
+        Iterator<Integer> iterator = tree.iterator();
+        while (iterator.hasNext())
+            walked.add(iterator.next());
+        assertEquals(List.of(1, 3, 4, 5, 8, 9), walked);
+        assertThrows(NoSuchElementException.class, iterator::next);
+        assertFalse(new BinarySearchTree<Integer>().iterator().hasNext());
+
+        Iterator<Integer> changed = tree.iterator();
+        changed.next();
+        tree.add(6);
+        assertThrows(ConcurrentModificationException.class, changed::next);
+    }
+
+    /**
+     * Splitting the spliterator of a balanced tree must halve its range of positions, the halves together
+     * holding every value in order, and a parallel stream must give the same values as a sequential one,
+     * on a balanced tree and on a chain that can hardly be split.
+     */
+    @Test
+    void spliteratorSplitsByRankForParallelStreams() throws Exception {
+        AVLTree<Integer> balanced = new AVLTree<>();
+        for (int i = 0; i < 10000; i++)
+            balanced.add(i);
+        Spliterator<Integer> suffix = balanced.spliterator();
+        Spliterator<Integer> prefix = suffix.trySplit();
+        assertEquals(5000, prefix.estimateSize());
+        assertEquals(5000, suffix.estimateSize());
+        List<Integer> values = new ArrayList<>();
+        prefix.forEachRemaining(values::add);
+        suffix.forEachRemaining(values::add);
+        assertEquals(balanced.inorderTraversal(), values);
+        assertEquals(List.of(10, 11, 12), balanced.stream(10, 13).collect(Collectors.toList()));
+
+        BinarySearchTree<Integer> chain = new BinarySearchTree<>();
+        for (int i = 0; i < 2000; i++)
+            chain.add(i);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (BinarySearchTree<Integer> tree : List.of(balanced, chain)) {
+                List<Integer> parallel = pool.submit(() -> tree.parallelStream().collect(Collectors.toList())).get();
+                assertEquals(tree.stream().collect(Collectors.toList()), parallel);
+                assertEquals(tree.stream().mapToLong(Integer::longValue).sum(),
+                        (long) pool.submit(() -> tree.parallelStream().mapToLong(Integer::longValue).sum()).get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * range, headSet and tailSet must include their lower bound and exclude their upper bound,
+     * whether or not the bounds are in the tree, and an inverted range must be empty.
+     */
+    @Test
+    void rangeQueriesIncludeLowerAndExcludeUpperBound() {
+        BinarySearchTree<Integer> tree = new AVLTree<>();
+        for (int i = 0; i <= 100; i += 10)
+            tree.add(i);
+
+        assertEquals(List.of(20, 30, 40), tree.range(20, 50).collect(Collectors.toList()));
+        assertEquals(List.of(20, 30, 40), tree.range(15, 45).collect(Collectors.toList()));
+        assertEquals(List.of(), tree.range(50, 50).collect(Collectors.toList()));
+        assertEquals(List.of(), tree.range(60, 20).collect(Collectors.toList()));
+        assertEquals(List.of(0, 10), tree.headSet(20).collect(Collectors.toList()));
+        assertEquals(List.of(), tree.headSet(0).collect(Collectors.toList()));
+        assertEquals(List.of(90, 100), tree.tailSet(90).collect(Collectors.toList()));
+        assertEquals(List.of(100), tree.tailSet(95).collect(Collectors.toList()));
+        assertEquals(List.of(), tree.tailSet(101).collect(Collectors.toList()));
+    }
+
+    /**
+     * Lookups and removals by key must find the value with that key, or nothing when no value has it,
+     * without needing a value to compare with.
+     */
+    @Test
+    void keyedLookupsFindValuesByKey() {
+        BinarySearchTree<Patient> patients = new AVLTree<>();
+        List<Patient> added = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Patient patient = PatientBSTTest.patient("p" + i + "@x.com");
+            added.add(patient);
+            patients.add(patient);
+        }
+
+        for (Patient patient : added) {
+            assertSame(patient, patients.searchByKey(patient.getEmail(), Patient::getEmail));
+            assertTrue(patients.containsKey(patient.getEmail(), Patient::getEmail));
+        }
+        assertNull(patients.searchByKey("missing@x.com", Patient::getEmail));
+        assertFalse(patients.containsKey("missing@x.com", Patient::getEmail));
+        assertNull(new BinarySearchTree<Patient>().searchByKey("p1@x.com", Patient::getEmail));
+
+        assertSame(added.get(7), patients.removeByKey("p7@x.com", Patient::getEmail));
+        assertNull(patients.removeByKey("p7@x.com", Patient::getEmail));
+        assertNull(patients.searchByKey("p7@x.com", Patient::getEmail));
+        assertEquals(999, patients.size());
+        patients.checkInvariants();
+    }
+
+    /**
+     * An equal value must never be added twice. putIfAbsent must keep the value already there,
+     * upsert replace it without changing a snapshot, and compute insert, replace or remove by key,
+     * rejecting a value with another key.
+     */
+    @Test
+    void upsertOperationsNeverAddDuplicates() {
+        for (BinarySearchTree<Patient> patients : List.of(new BinarySearchTree<Patient>(), new AVLTree<Patient>())) {
+            Patient first = PatientBSTTest.patient("a@x.com");
+            Patient second = PatientBSTTest.patient("a@x.com");
+            assertTrue(patients.add(first));
+            assertFalse(patients.add(second));
+            assertSame(first, patients.putIfAbsent(second));
+            assertEquals(1, patients.size());
+
+            BinarySearchTree<Patient> snapshot = patients.snapshot();
+            assertSame(first, patients.upsert(second));
+            assertSame(second, patients.searchByKey("a@x.com", Patient::getEmail));
+            assertSame(first, snapshot.searchByKey("a@x.com", Patient::getEmail));
+            assertNull(patients.upsert(PatientBSTTest.patient("b@x.com")));
+            assertEquals(2, patients.size());
+
+            Patient computed = PatientBSTTest.patient("c@x.com");
+            assertSame(computed, patients.compute("c@x.com", Patient::getEmail, (email, existing) -> existing == null ? computed : null));
+            assertSame(computed, patients.compute("c@x.com", Patient::getEmail, (email, existing) -> existing));
+            assertNull(patients.compute("a@x.com", Patient::getEmail, (email, existing) -> null));
+            assertNull(patients.compute("d@x.com", Patient::getEmail, (email, existing) -> null));
+            assertThrows(IllegalArgumentException.class,
+                    () -> patients.compute("b@x.com", Patient::getEmail, (email, existing) -> PatientBSTTest.patient("e@x.com")));
+
+            assertEquals(List.of("b@x.com", "c@x.com"), patients.stream().map(Patient::getEmail).collect(Collectors.toList()));
+            patients.checkInvariants();
+        }
+    }
+
+    /**
+     * removeIf and retainIf must remove exactly the matching values, relink the rest at minimum height
+     * without changing a snapshot, and leave the tree unchanged when nothing matches or the predicate throws.
+     */
+    @Test
+    void removeIfRelinksRemainingValues() {
+        Random random = new Random(16);
+        for (BinarySearchTree<Integer> tree : List.of(new BinarySearchTree<Integer>(), new AVLTree<Integer>())) {
+            TreeSet<Integer> expected = new TreeSet<>();
+            for (int i = 0; i < 5000; i++) {
+                int value = random.nextInt(20000);
+                tree.add(value);
+                expected.add(value);
+            }
+            BinarySearchTree<Integer> snapshot = tree.snapshot();
+            List<Integer> before = tree.inorderTraversal();
+
+            assertTrue(tree.removeIf(value -> value % 3 == 0));
+            expected.removeIf(value -> value % 3 == 0);
+            assertEquals(new ArrayList<>(expected), tree.inorderTraversal());
+            assertEquals(32 - Integer.numberOfLeadingZeros(tree.size()), tree.treeDepth() + 1);
+            tree.checkInvariants();
+            assertEquals(before, snapshot.inorderTraversal());
+
+            assertTrue(tree.retainIf(value -> value < 10000));
+            expected.removeIf(value -> value >= 10000);
+            assertEquals(new ArrayList<>(expected), tree.inorderTraversal());
+            tree.checkInvariants();
+
+            assertFalse(tree.removeIf(value -> value < 0));
+            assertThrows(IllegalStateException.class, () -> tree.removeIf(value -> {
+                if (value > 5000)
+                    throw new IllegalStateException();
+                return true;
+            }));
+            assertEquals(new ArrayList<>(expected), tree.inorderTraversal());
+            tree.checkInvariants();
+        }
+    }
+
+    /**
+     * The traversals must pass the values to the action in in-order, pre-order and post-order,
+     * and writeTo must write them in order, one per line, to a builder, a writer or a stream.
+     */
+    @Test
+    void traversalsVisitInEachOrderAndWriteTo() throws IOException {
+        BinarySearchTree<Integer> tree = new BinarySearchTree<>();
+        for (int value : new int[]{4, 2, 6, 1, 3, 5, 7})
+            tree.add(value);
+
+        List<Integer> inOrder = new ArrayList<>(), preOrder = new ArrayList<>(), postOrder = new ArrayList<>();
+        tree.forEachInOrder(inOrder::add);
+        tree.forEachPreOrder(preOrder::add);
+        tree.forEachPostOrder(postOrder::add);
+        assertEquals(List.of(1, 2, 3, 4, 5, 6, 7), inOrder);
+        assertEquals(List.of(4, 2, 1, 3, 6, 5, 7), preOrder);
+        assertEquals(List.of(1, 3, 2, 5, 7, 6, 4), postOrder);
+        new BinarySearchTree<Integer>().forEachPostOrder(value -> {
+            throw new AssertionError();
+        });
+
+        String expected = String.join(System.lineSeparator(), "1", "2", "3", "4", "5", "6", "7") + System.lineSeparator();
+        StringBuilder builder = new StringBuilder();
+        tree.writeTo(builder);
+        assertEquals(expected, builder.toString());
+
+        StringWriter writer = new StringWriter();
+        tree.writeTo(writer);
+        assertEquals(expected, writer.toString());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        tree.writeTo(new PrintStream(bytes));
+        assertEquals(expected, bytes.toString());
+    }
+}
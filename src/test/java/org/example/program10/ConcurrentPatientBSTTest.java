@@ -0,0 +1,128 @@
+package org.example.program10;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A multi-threaded stress test of PatientBST in concurrent mode, mixing 95% reads with 5% writes.
+ * Readers look patients up through the optimistic hash index read and the published snapshot,
+ * and check snapshots taken while writers add, delete and re-key patients.
+ */
+class ConcurrentPatientBSTTest {
+
+    /**
+     * The number of patients that are never changed, and of emails that writers add, delete and re-key.
+     */
+    private static final int STABLE = 10_000, VOLATILE = 2_000;
+
+    /**
+     * The number of threads, and of operations each runs.
+     */
+    private static final int THREADS = 4, OPERATIONS = 50_000;
+
+    @Test
+    void readsStayConsistentWhileWritersChangeTheTree() throws Exception {
+        PatientBST patients = new PatientBST(PatientBST.TreeType.BALANCED, true);
+        patients.setHashIndex(true);
+        List<Patient> stable = new ArrayList<>();
+        for (int i = 0; i < STABLE; i++)
+            stable.add(PatientBSTTest.patient("s" + i + "@x.com"));
+        assertTrue(patients.addPatients(stable));
+
+        AtomicInteger volatileCount = new AtomicInteger();
+        ExecutorService threads = Executors.newFixedThreadPool(THREADS);
+        List<Future<?>> results = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            long seed = t;
+            results.add(threads.submit(() -> {
+                Random random = new Random(seed);
+                for (int i = 0; i < OPERATIONS; i++) {
+                    int operation = random.nextInt(100);
+                    if (operation < 5)
+                        write(patients, random, volatileCount);
+                    else
+                        read(patients, random, operation);
+                }
+                return null;
+            }));
+        }
+        threads.shutdown();
+        for (Future<?> result : results)
+            result.get();
+        assertTrue(threads.awaitTermination(1, TimeUnit.MINUTES));
+
+        patients.checkInvariants();
+        assertEquals(STABLE + volatileCount.get(), patients.size());
+        for (int i = 0; i < STABLE; i++)
+            assertNotNull(patients.searchPatient("s" + i + "@x.com"));
+    }
+
+    /**
+     * Adds, deletes or re-keys a random volatile patient, counting the volatile patients in the tree.
+     *
+     * @param patients      The shared patients.
+     * @param random        The random numbers of the thread.
+     * @param volatileCount The number of volatile patients in the tree.
+     */
+    private static void write(PatientBST patients, Random random, AtomicInteger volatileCount) {
+        String email = "v" + random.nextInt(VOLATILE) + "@x.com";
+        switch (random.nextInt(3)) {
+            case 0 -> {
+                if (patients.addPatient(PatientBSTTest.patient(email)))
+                    volatileCount.incrementAndGet();
+            }
+            case 1 -> {
+                if (patients.deletePatients(List.of(email)))
+                    volatileCount.decrementAndGet();
+            }
+            default -> patients.changeKey(email, "v" + random.nextInt(VOLATILE) + "@x.com");
+        }
+    }
+
+    /**
+     * Looks up a stable or volatile patient, or checks a snapshot or a range of the tree.
+     *
+     * @param patients  The shared patients.
+     * @param random    The random numbers of the thread.
+     * @param operation The kind of read, from 5 to 99.
+     */
+    private static void read(PatientBST patients, Random random, int operation) {
+        if (operation < 80) {
+            // Stable patients are always found, through the index or the published snapshot
+            String email = "s" + random.nextInt(STABLE) + "@x.com";
+            Patient patient = patients.searchPatient(email);
+            assertNotNull(patient, email);
+            assertEquals(email, patient.getEmail());
+        } else if (operation < 95) {
+            // A volatile patient may or may not be there, but a patient found must have the email looked up
+            String email = "v" + random.nextInt(VOLATILE) + "@x.com";
+            Patient patient = patients.searchPatient(email);
+            if (patient != null)
+                assertEquals(email, patient.getEmail());
+        } else if (operation < 96) {
+            // A snapshot never changes, even while writers go on
+            PatientBST snapshot = patients.snapshot();
+            int size = snapshot.size();
+            snapshot.checkInvariants();
+            assertEquals(size, snapshot.getAllPatients().size());
+        } else {
+            // A range read from the published snapshot is sorted and complete
+            String from = "s" + random.nextInt(STABLE);
+            List<Patient> range = patients.range(from, from + "~").toList();
+            for (int i = 1; i < range.size(); i++)
+                assertTrue(range.get(i - 1).getEmail().compareTo(range.get(i).getEmail()) < 0);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package org.example.program10;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * A throughput benchmark of CsvTokenizer against the String.split path that loadPatientData used before it.
+ * It only runs when asked for, with
+ * {@code mvn test -Dbenchmark=true -Dtest=CsvTokenizerBenchmarkTest}, and prints MB/s for each round.
+ * The number of records can be set with -Dbenchmark.records.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class CsvTokenizerBenchmarkTest {
+
+    /**
+     * The number of timed rounds; the first ones also warm up the JIT.
+     */
+    private static final int ROUNDS = 5;
+
+    @Test
+    void tokenizerAgainstSplit(@TempDir Path directory) throws IOException {
+        int records = Integer.getInteger("benchmark.records", 1_000_000);
+        Path file = directory.resolve("patients.txt");
+        Random random = new Random(24);
+        // Fields without commas or quotes, which split can read
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            for (int i = 0; i < records; i++)
+                out.print("First" + random.nextInt(3000) + ",Last" + random.nextInt(20000) + "," + i + " Main St,Detroit,MI,48201,555-0100,p"
+                        + i + "@example.com,2021-01-01,0000-00-00\n");
+        }
+        double megabytes = Files.size(file) / 1e6;
+
+        for (int round = 0; round < ROUNDS; round++) {
+            long start = System.nanoTime();
+            long splitFields = 0;
+            try (BufferedReader in = Files.newBufferedReader(file)) {
+                String line;
+                while ((line = in.readLine()) != null)
+                    splitFields += line.split(",").length;
+            }
+            long split = System.nanoTime();
+
+            long tokenizerFields = 0;
+            try (FileChannel channel = FileChannel.open(file)) {
+                CsvTokenizer tokenizer = new CsvTokenizer(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+                String[] fields = new String[10];
+                int count;
+                while ((count = tokenizer.next(fields)) >= 0)
+                    tokenizerFields += count;
+            }
+            long tokenizer = System.nanoTime();
+
+            assertEquals(10L * records, splitFields);
+            assertEquals(splitFields, tokenizerFields);
+            System.out.printf("Round %d on %.1f MB: split %.0f MB/s, CsvTokenizer %.0f MB/s%n", round + 1, megabytes,
+                    megabytes / ((split - start) / 1e9), megabytes / ((tokenizer - split) / 1e9));
+        }
+    }
+}
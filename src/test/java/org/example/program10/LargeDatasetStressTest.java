@@ -0,0 +1,132 @@
+package org.example.program10;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Stress tests with millions of sorted records and with degenerate trees, checking that every operation runs
+ * in constant stack depth, so the size of a dataset is not capped by the stack of the thread.
+ */
+class LargeDatasetStressTest {
+
+    /**
+     * The number of records in the large tests.
+     */
+    private static final int RECORDS = 5_000_000;
+
+    /**
+     * The number of patients in a plain tree built by inserting sorted emails, which is a chain that deep.
+     * Recursive operations overflowed the stack at about this depth.
+     */
+    private static final int CHAIN = 20_000;
+
+    /**
+     * Gets the email of the i-th patient, with the same number of digits for every i so emails sort like i.
+     *
+     * @param i The number of the patient.
+     * @return The email.
+     */
+    private static String email(int i) {
+        return "p" + (10_000_000 + i) + "@x.com";
+    }
+
+    /**
+     * Writes 5M patients sorted by email to a file and loads it into a PatientBST through the file loader,
+     * then searches, ranks, iterates and deletes.
+     *
+     * @param directory A temporary directory for the patient file.
+     * @throws IOException if the file cannot be written or loaded
+     */
+    @Test
+    void fiveMillionSortedPatientsLoad(@TempDir Path directory) throws IOException {
+        Path file = directory.resolve("patients.txt");
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(file))) {
+            for (int i = 0; i < RECORDS; i++)
+                out.print(PatientBSTTest.patient(email(i)).toDataString() + "\n");
+        }
+
+        PatientBST patients = new PatientBST();
+        patients.loadPatientData(file.toString(), null);
+
+        assertEquals(RECORDS, patients.size());
+        assertTrue(patients.treeDepth() < 23, "depth " + patients.treeDepth());
+        assertEquals(email(0), patients.searchPatient(email(0)).getEmail());
+        assertEquals(email(RECORDS - 1), patients.searchPatient(email(RECORDS - 1)).getEmail());
+        assertEquals(email(RECORDS / 2), patients.getPatientAt(RECORDS / 2).getEmail());
+        assertEquals(RECORDS / 3, patients.indexOf(email(RECORDS / 3)));
+
+        AtomicInteger count = new AtomicInteger();
+        patients.forEachInOrder(patient -> count.incrementAndGet());
+        assertEquals(RECORDS, count.get());
+
+        for (int i = 0; i < RECORDS; i += 1000)
+            patients.deletePatient(email(i));
+        assertEquals(RECORDS - RECORDS / 1000, patients.size());
+        assertNull(patients.searchPatient(email(1000)));
+        patients.checkInvariants();
+    }
+
+    /**
+     * Adds 5M sorted values one at a time to an AVL tree, the worst order for a plain tree.
+     */
+    @Test
+    void fiveMillionSortedAddsToAVLTree() {
+        AVLTree<Integer> tree = new AVLTree<>();
+        for (int i = 0; i < RECORDS; i++)
+            assertTrue(tree.add(i));
+
+        assertEquals(RECORDS, tree.size());
+        // An AVL tree of n values is at most about 1.44 log2(n) deep
+        assertTrue(tree.treeDepth() <= 32, "depth " + tree.treeDepth());
+        assertTrue(tree.contains(RECORDS - 1));
+        assertFalse(tree.contains(RECORDS));
+        for (int i = 0; i < RECORDS; i += 2)
+            assertTrue(tree.remove(i));
+        assertEquals(RECORDS / 2, tree.size());
+        tree.checkInvariants();
+    }
+
+    /**
+     * Builds a plain tree that is a chain 20k deep, then runs every operation that used to recurse along it,
+     * including saving the patients to a file.
+     *
+     * @param directory A temporary directory for the saved file.
+     * @throws IOException if saving fails
+     */
+    @Test
+    void degenerateTreeOperations(@TempDir Path directory) throws IOException {
+        PatientBST patients = new PatientBST(PatientBST.TreeType.PLAIN);
+        for (int i = 0; i < CHAIN; i++)
+            assertTrue(patients.addPatient(PatientBSTTest.patient(email(i))));
+
+        assertEquals(CHAIN, patients.size());
+        assertEquals(CHAIN - 1, patients.treeDepth());
+        assertEquals(email(CHAIN - 1), patients.searchPatient(email(CHAIN - 1)).getEmail());
+        assertEquals(CHAIN, patients.getAllPatients().size());
+
+        AtomicInteger count = new AtomicInteger();
+        patients.forEachPreOrder(patient -> count.incrementAndGet());
+        patients.forEachPostOrder(patient -> count.incrementAndGet());
+        assertEquals(2 * CHAIN, count.get());
+
+        Path file = directory.resolve("patients_bst.txt");
+        patients.savePatientData(file.toString());
+        assertEquals(CHAIN, Files.readAllLines(file).size());
+
+        patients.deletePatient(email(CHAIN / 2));
+        patients.deletePatient(email(CHAIN - 1));
+        assertEquals(CHAIN - 2, patients.size());
+        patients.checkInvariants();
+    }
+}
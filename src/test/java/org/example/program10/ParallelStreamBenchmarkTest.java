@@ -0,0 +1,91 @@
+package org.example.program10;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * A throughput benchmark of the tally that QueryGUI.performSearch runs, on a sequential and a parallel stream
+ * of a balanced PatientBST holding 1M and 10M patients.
+ * It only runs when asked for, with
+ * {@code mvn test -Dbenchmark=true -Dtest=ParallelStreamBenchmarkTest -DargLine=-Xmx6g}, and prints the
+ * patients per second of each stream. The sizes can be set with -Dbenchmark.sizes, such as 1000000,10000000.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ParallelStreamBenchmarkTest {
+
+    /**
+     * The number of timed rounds of each stream; the first ones also warm up the JIT.
+     */
+    private static final int ROUNDS = 5;
+
+    /**
+     * The states and zip codes the patients live in.
+     */
+    private static final String[] STATES = {"MI", "OH", "IN", "IL"}, ZIPS = {"48201", "48202", "48226", "49503"};
+
+    /**
+     * The shot dates, which give each vaccination status.
+     */
+    private static final String[][] SHOTS = {{"0000-00-00", "0000-00-00"}, {"2021-01-01", "0000-00-00"}, {"2021-01-01", "2021-02-01"}};
+
+    @Test
+    void sequentialAgainstParallel() {
+        System.out.println("Parallelism of the common pool: " + ForkJoinPool.commonPool().getParallelism());
+        for (String size : System.getProperty("benchmark.sizes", "1000000,10000000").split(",")) {
+            int records = Integer.parseInt(size.trim());
+            PatientBST patients = newTree(records);
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                Map<VaccinationStatus, Long> sequential = tally(patients.stream());
+                long middle = System.nanoTime();
+                Map<VaccinationStatus, Long> parallel = tally(patients.parallelStream());
+                long end = System.nanoTime();
+
+                assertEquals(sequential, parallel);
+                System.out.printf("Round %d on %,d patients: sequential %.1fM/s, parallel %.1fM/s%n", round + 1, records,
+                        records / ((middle - start) / 1e3), records / ((end - middle) / 1e3));
+            }
+        }
+    }
+
+    /**
+     * Builds a balanced tree of patients spread evenly over the states, zip codes and vaccination statuses.
+     *
+     * @param records The number of patients.
+     * @return The tree.
+     */
+    private static PatientBST newTree(int records) {
+        Random random = new Random(6);
+        List<Patient> sorted = new ArrayList<>(records);
+        for (int i = 0; i < records; i++) {
+            String[] shots = SHOTS[random.nextInt(SHOTS.length)];
+            sorted.add(new Patient("Ada", "Lovelace", "1 Main St", "Detroit", STATES[random.nextInt(STATES.length)],
+                    ZIPS[random.nextInt(ZIPS.length)], "555-0100", "p" + (100_000_000 + i) + "@x.com", shots[0], shots[1]));
+        }
+        PatientBST patients = new PatientBST(PatientBST.TreeType.BALANCED);
+        patients.loadPatients(sorted);
+        return patients;
+    }
+
+    /**
+     * Counts the patients of one state by vaccination status, as QueryGUI.performSearch does.
+     *
+     * @param patients A stream of the patients.
+     * @return The number of patients with each status.
+     */
+    private static Map<VaccinationStatus, Long> tally(Stream<Patient> patients) {
+        return patients.filter(patient -> "MI".equals(patient.getState()))
+                .collect(Collectors.groupingBy(Patient::getVaccinationStatus, Collectors.counting()));
+    }
+}
@@ -0,0 +1,382 @@
+package org.example.program10;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfEnvironmentVariable;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests for PatientBST.
+ */
+class PatientBSTTest {
+
+    /**
+     * Creates a patient with the given email and otherwise fixed details.
+     *
+     * @param email The email.
+     * @return The patient.
+     */
+    static Patient patient(String email) {
+        return new Patient("Ada", "Lovelace", "1 Main St", "Detroit", "MI", "48201", "555-0100", email, "2021-01-01", "0000-00-00");
+    }
+
+    /**
+     * Changing the email of a patient must not change the patient seen by an earlier snapshot.
+     */
+    @Test
+    void changeKeyLeavesSnapshotsUnchanged() {
+        PatientBST patients = new PatientBST();
+        for (String email : new String[]{"abc@x.com", "mmm@x.com", "qqq@x.com", "bbb@x.com"})
+            assertTrue(patients.addPatient(patient(email)));
+
+        PatientBST snapshot = patients.snapshot();
+        assertTrue(patients.changeKey("abc@x.com", "zz@x.com"));
+
+        assertNotNull(snapshot.searchPatient("abc@x.com"));
+        assertEquals("abc@x.com", snapshot.searchPatient("abc@x.com").getEmail());
+        assertNull(snapshot.searchPatient("zz@x.com"));
+        snapshot.checkInvariants();
+
+        assertNull(patients.searchPatient("abc@x.com"));
+        assertEquals("zz@x.com", patients.searchPatient("zz@x.com").getEmail());
+        assertEquals("Lovelace", patients.searchPatient("zz@x.com").getLastName());
+        patients.checkInvariants();
+    }
+
+    /**
+     * Batches of every size added to or deleted from the BST must leave the hash index in sync,
+     * whether the batch is merged or applied one patient at a time.
+     */
+    @Test
+    void batchChangesKeepHashIndexInSync() {
+        for (PatientBST.TreeType treeType : PatientBST.TreeType.values()) {
+            PatientBST patients = new PatientBST(treeType);
+            patients.setHashIndex(true);
+
+            List<Patient> initial = new ArrayList<>();
+            for (int i = 0; i < 5000; i++)
+                initial.add(patient("p" + i + "@x.com"));
+            assertTrue(patients.addPatients(initial));
+            patients.checkInvariants();
+
+            // A small batch, applied one patient at a time by a balanced tree
+            assertTrue(patients.addPatients(List.of(patient("new1@x.com"), patient("p1@x.com"))));
+            assertTrue(patients.deletePatients(List.of("p2@x.com", "missing@x.com")));
+            patients.checkInvariants();
+            assertEquals(5000, patients.size());
+            assertNull(patients.searchPatient("p2@x.com"));
+            assertNotNull(patients.searchPatient("new1@x.com"));
+
+            // A large batch, merged with the tree
+            List<String> emails = new ArrayList<>();
+            for (int i = 0; i < 5000; i += 2)
+                emails.add("p" + i + "@x.com");
+            assertTrue(patients.deletePatients(emails));
+            patients.checkInvariants();
+            assertEquals(2501, patients.size());
+            assertNull(patients.searchPatient("p4@x.com"));
+            assertNotNull(patients.searchPatient("p5@x.com"));
+        }
+    }
+
+    /**
+     * An adaptive tree changes shape on every search, so it cannot be made concurrent.
+     */
+    @Test
+    void adaptiveTreeCannotBeConcurrent() {
+        assertThrows(IllegalArgumentException.class, () -> new PatientBST(PatientBST.TreeType.ADAPTIVE, true));
+        new PatientBST(PatientBST.TreeType.ADAPTIVE, false);
+    }
+
+    /**
+     * Patients can be found by position and paged through in email order, and indexOf gives the position
+     * of an email whether or not a patient has it.
+     */
+    @Test
+    void positionsFollowEmailOrder() {
+        PatientBST patients = new PatientBST();
+        for (int i = 99; i >= 0; i--)
+            assertTrue(patients.addPatient(patient(String.format("p%03d@x.com", i))));
+
+        assertEquals(100, patients.size());
+        assertEquals("p000@x.com", patients.getPatientAt(0).getEmail());
+        assertEquals("p042@x.com", patients.getPatientAt(42).getEmail());
+        assertEquals(42, patients.indexOf("p042@x.com"));
+        assertEquals(43, patients.indexOf("p042@y.com"));
+        assertEquals(0, patients.indexOf("a@x.com"));
+        assertEquals(100, patients.indexOf("z@x.com"));
+
+        List<Patient> page = patients.getPatients(95, 10);
+        assertEquals(5, page.size());
+        assertEquals("p095@x.com", page.get(0).getEmail());
+        assertTrue(patients.getPatients(200, 10).isEmpty());
+    }
+
+    /**
+     * A prefix query must return exactly the patients whose email starts with the prefix, including
+     * a prefix ending in the largest char, and email ranges must follow the same bounds as the tree.
+     */
+    @Test
+    void prefixAndRangeQueriesByEmail() {
+        PatientBST patients = new PatientBST();
+        String max = String.valueOf(Character.MAX_VALUE);
+        for (String email : new String[]{"ab@x.com", "abc@x.com", "abd@x.com", "ac@x.com", "b@x.com", "ab" + max + "z", max + "q"})
+            assertTrue(patients.addPatient(patient(email)));
+
+        assertEquals(List.of("ab@x.com", "abc@x.com", "abd@x.com", "ab" + max + "z"), emails(patients.prefix("ab")));
+        assertEquals(List.of("abc@x.com"), emails(patients.prefix("abc")));
+        assertEquals(List.of("ab" + max + "z"), emails(patients.prefix("ab" + max)));
+        assertEquals(List.of(max + "q"), emails(patients.prefix(max)));
+        assertEquals(7, emails(patients.prefix("")).size());
+        assertEquals(List.of(), emails(patients.prefix("zz")));
+
+        assertEquals(List.of("abc@x.com", "abd@x.com", "ab" + max + "z"), emails(patients.range("abc@x.com", "ac@x.com")));
+        assertEquals(List.of(), emails(patients.range("b@x.com", "a@x.com")));
+        assertEquals(List.of("ab@x.com"), emails(patients.headSet("abc@x.com")));
+        assertEquals(List.of("b@x.com", max + "q"), emails(patients.tailSet("b@x.com")));
+    }
+
+    /**
+     * Lists the emails of a stream of patients.
+     *
+     * @param patients The patients.
+     * @return Their emails in the order of the stream.
+     */
+    private static List<String> emails(Stream<Patient> patients) {
+        return patients.map(Patient::getEmail).collect(Collectors.toList());
+    }
+
+    /**
+     * Searching, updating and deleting by email must act on the patient with that email, with and without
+     * the hash index, and leave the BST alone when no patient has it.
+     */
+    @Test
+    void searchUpdateAndDeleteByEmail() {
+        for (boolean hashIndex : new boolean[]{false, true}) {
+            PatientBST patients = new PatientBST();
+            patients.setHashIndex(hashIndex);
+            for (int i = 0; i < 100; i++)
+                assertTrue(patients.addPatient(patient("p" + i + "@x.com")));
+
+            assertEquals("p42@x.com", patients.searchPatient("p42@x.com").getEmail());
+            assertNull(patients.searchPatient("missing@x.com"));
+
+            Patient updated = new Patient("Grace", "Hopper", "2 Main St", "Flint", "MI", "48502", "555-0199", "p42@x.com", "2021-01-01", "2021-02-01");
+            patients.updatePatient(updated);
+            assertSame(updated, patients.searchPatient("p42@x.com"));
+            patients.updatePatient(patient("missing@x.com"));
+            assertNull(patients.searchPatient("missing@x.com"));
+
+            patients.deletePatient("p42@x.com");
+            patients.deletePatient("missing@x.com");
+            assertNull(patients.searchPatient("p42@x.com"));
+            assertEquals(99, patients.size());
+            patients.checkInvariants();
+        }
+    }
+
+    /**
+     * putIfAbsent, upsert and compute on the BST must keep the hash index in step with the patients stored.
+     */
+    @Test
+    void upsertOperationsKeepHashIndexInSync() {
+        PatientBST patients = new PatientBST();
+        patients.setHashIndex(true);
+        Patient first = patient("a@x.com");
+        Patient second = patient("a@x.com");
+
+        assertNull(patients.putIfAbsent(first));
+        assertSame(first, patients.putIfAbsent(second));
+        assertFalse(patients.addPatient(second));
+        assertSame(first, patients.searchPatient("a@x.com"));
+
+        assertSame(first, patients.upsert(second));
+        assertSame(second, patients.searchPatient("a@x.com"));
+
+        Patient computed = patient("b@x.com");
+        assertSame(computed, patients.compute("b@x.com", (email, existing) -> computed));
+        assertSame(computed, patients.searchPatient("b@x.com"));
+        assertNull(patients.compute("a@x.com", (email, existing) -> null));
+        assertNull(patients.searchPatient("a@x.com"));
+        assertEquals(1, patients.size());
+        patients.checkInvariants();
+    }
+
+    /**
+     * Removing the patients of a zip code in one pass must remove them from the hash index as well.
+     */
+    @Test
+    void removeIfByZipKeepsHashIndexInSync() {
+        PatientBST patients = new PatientBST();
+        patients.setHashIndex(true);
+        for (int i = 0; i < 1000; i++) {
+            String zip = i % 4 == 0 ? "48502" : "48201";
+            assertTrue(patients.addPatient("Ada", "Lovelace", "1 Main St", "Detroit", "MI", zip, "555-0100", "p" + i + "@x.com", "2021-01-01", "0000-00-00"));
+        }
+
+        assertTrue(patients.removeIf(patient -> patient.getZipCode() == 48502));
+        assertEquals(750, patients.size());
+        assertNull(patients.searchPatient("p4@x.com"));
+        assertNotNull(patients.searchPatient("p5@x.com"));
+        assertFalse(patients.removeIf(patient -> patient.getZipCode() == 48502));
+
+        assertTrue(patients.retainIf(patient -> patient.getEmail().startsWith("p1")));
+        assertNull(patients.searchPatient("p5@x.com"));
+        assertNotNull(patients.searchPatient("p13@x.com"));
+        patients.checkInvariants();
+    }
+
+    /**
+     * A tree saved with its shape must load with the same shape and with every field of every patient,
+     * including null, unreceived and irregular values kept as they were given.
+     *
+     * @param directory A temporary directory for the saved file.
+     * @throws IOException if saving or loading fails
+     */
+    @Test
+    void treeShapeRoundTrip(@TempDir Path directory) throws IOException {
+        String[][] odd = {{"MI", "48201", "2021-01-01", "2021-02-01"}, {null, null, null, null},
+                {"XX", "4820", "0000-00-00", "0000-00-00"}, {"NY", "00501", "01/02/2021", null}, {"Michigan", "48201-1234", "2021-13-40", "2021-03-01"}};
+        List<Patient> shuffled = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String[] fields = odd[i % odd.length];
+            shuffled.add(new Patient(i % 7 == 0 ? null : "First" + i, "Last", "1 Main St", "Detroit", fields[0], fields[1],
+                    "555-0100", "p" + i + "@x.com", fields[2], fields[3]));
+        }
+        Collections.shuffle(shuffled, new Random(18));
+
+        for (PatientBST.TreeType treeType : PatientBST.TreeType.values()) {
+            PatientBST saved = new PatientBST(treeType);
+            for (Patient patient : shuffled)
+                assertTrue(saved.addPatient(patient));
+            Path file = directory.resolve(treeType + ".bin");
+            saved.saveTreeShape(file.toString());
+
+            PatientBST loaded = new PatientBST(treeType);
+            loaded.loadTreeShape(file.toString());
+            loaded.checkInvariants();
+            assertEquals(saved.treeDepth(), loaded.treeDepth());
+            assertEquals(preOrder(saved), preOrder(loaded));
+
+            List<Patient> before = new ArrayList<>(), after = new ArrayList<>();
+            saved.forEachInOrder(before::add);
+            loaded.forEachInOrder(after::add);
+            assertEquals(before.size(), after.size());
+            for (int i = 0; i < before.size(); i++) {
+                assertEquals(before.get(i).toString(), after.get(i).toString());
+                assertEquals(before.get(i).getVaccinationStatus(), after.get(i).getVaccinationStatus());
+                assertEquals(before.get(i).getZipCode(), after.get(i).getZipCode());
+            }
+        }
+    }
+
+    /**
+     * Interrupting the thread loading the patient file must stop the load with an InterruptedIOException
+     * and leave the BST unchanged, and a later load must still work.
+     *
+     * @param directory A temporary directory for the patient file.
+     * @throws IOException if the file cannot be written or loaded
+     */
+    @Test
+    void interruptingLoadLeavesTreeUnchanged(@TempDir Path directory) throws IOException {
+        Path file = writePatientFile(directory, 200_000);
+        PatientBST patients = new PatientBST();
+        assertTrue(patients.addPatient(patient("existing@x.com")));
+
+        Thread caller = Thread.currentThread();
+        try {
+            assertThrows(InterruptedIOException.class,
+                    () -> patients.loadPatientData(file.toString(), (bytesParsed, bytesTotal) -> caller.interrupt()));
+        } finally {
+            Thread.interrupted();
+        }
+        assertEquals(1, patients.size());
+
+        patients.loadPatientData(file.toString(), null);
+        assertEquals(200_001, patients.size());
+        patients.checkInvariants();
+    }
+
+    /**
+     * Cancelling an asynchronous load must leave the BST unchanged, and a load left to finish must give the BST
+     * as the value of its task. This needs the JavaFX toolkit, so it only runs where there is a display.
+     *
+     * @param directory A temporary directory for the patient file.
+     * @throws Exception if the file cannot be written or loaded
+     */
+    @Test
+    @EnabledIfEnvironmentVariable(named = "DISPLAY", matches = ".+")
+    void cancellingAsyncLoadLeavesTreeUnchanged(@TempDir Path directory) throws Exception {
+        try {
+            Platform.startup(() -> {
+            });
+        } catch (IllegalStateException e) {
+            // The toolkit is already running
+        }
+        Path file = writePatientFile(directory, 200_000);
+        PatientBST patients = new PatientBST();
+        assertTrue(patients.addPatient(patient("existing@x.com")));
+
+        Task<PatientBST> cancelled = patients.loadPatientDataAsync(file.toString());
+        assertTrue(cancelled.cancel());
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("patient-loader"))
+                thread.join(TimeUnit.MINUTES.toMillis(1));
+        }
+        assertEquals(1, patients.size());
+
+        assertSame(patients, patients.loadPatientDataAsync(file.toString()).get(1, TimeUnit.MINUTES));
+        assertEquals(200_001, patients.size());
+    }
+
+    /**
+     * Writes a patient file sorted by email, as savePatientData does.
+     *
+     * @param directory The directory to write the file in.
+     * @param count     The number of patients.
+     * @return The file.
+     * @throws IOException if the file cannot be written
+     */
+    static Path writePatientFile(Path directory, int count) throws IOException {
+        List<Patient> sorted = new ArrayList<>(count);
+        for (int i = 0; i < count; i++)
+            sorted.add(patient("p" + (10_000_000 + i) + "@x.com"));
+        PatientBST patients = new PatientBST();
+        patients.loadPatients(sorted);
+        Path file = directory.resolve("patients.txt");
+        patients.savePatientData(file.toString());
+        return file;
+    }
+
+    /**
+     * Lists the emails of the patients in pre-order, which fixes the shape of the tree.
+     *
+     * @param patients The BST.
+     * @return The emails in pre-order.
+     */
+    private static List<String> preOrder(PatientBST patients) {
+        List<String> emails = new ArrayList<>();
+        patients.forEachPreOrder(patient -> emails.add(patient.getEmail()));
+        return emails;
+    }
+}
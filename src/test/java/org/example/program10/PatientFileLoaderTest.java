@@ -0,0 +1,95 @@
+package org.example.program10;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for PatientFileLoader.
+ */
+class PatientFileLoaderTest {
+
+    /**
+     * Loads a file of several chunks whose records hold literal quotes in unquoted fields and quoted
+     * addresses spanning many lines, so most chunk ranges start inside a quoted field,
+     * and checks that every patient is read as written, on one thread and on several,
+     * and that equal values from different chunks are one instance.
+     *
+     * @param directory A temporary directory for the file.
+     * @throws IOException if the file cannot be written or loaded
+     */
+    @Test
+    void chunksSplitInsideQuotedFields(@TempDir Path directory) throws IOException {
+        StringBuilder address = new StringBuilder("\"1 Main St");
+        for (int line = 0; line < 100; line++)
+            address.append("\nUnit ").append(line).append(" \"\"rear\"\"");
+        address.append('"');
+
+        StringBuilder text = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; text.length() < 6 << 20; i++) {
+            String email = "patient" + i + "@example.com";
+            text.append("Pat,O\"Brien,").append(address).append(",Detroit,MI,48201,555-0100,")
+                    .append(email).append(",2021-01-01,0000-00-00\n");
+            if (i % 1000 == 0)
+                text.append('\n');
+            expected.add(new Patient("Pat", "O\"Brien", address.substring(1, address.length() - 1).replace("\"\"", "\""),
+                    "Detroit", "MI", "48201", "555-0100", email, "2021-01-01", "0000-00-00").toDataString());
+        }
+        Path file = directory.resolve("patients.txt");
+        Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+
+        for (int threads : new int[]{1, 4}) {
+            List<String> loaded = new ArrayList<>();
+            List<Patient> patients = new PatientFileLoader(threads).load(file);
+            for (Patient patient : patients)
+                loaded.add(patient.toDataString());
+            assertEquals(expected, loaded, threads + " threads");
+            // Equal names and cities share one instance across the chunks, not just within each
+            Patient first = patients.get(0), last = patients.get(patients.size() - 1);
+            assertSame(first.getFirstName(), last.getFirstName());
+            assertSame(first.getLastName(), last.getLastName());
+            assertSame(first.getCity(), last.getCity());
+        }
+    }
+
+    /**
+     * Loads a file with one quoted address of several megabytes, longer than a chunk and than the bytes
+     * mapped past the end of one, among short records, and checks that every patient is read as written.
+     *
+     * @param directory A temporary directory for the file.
+     * @throws IOException if the file cannot be written or loaded
+     */
+    @Test
+    void recordsLongerThanAChunk(@TempDir Path directory) throws IOException {
+        String longAddress = "1 Main St\n".repeat(300_000);
+        StringBuilder text = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100_000; i++) {
+            String address = i == 30_000 ? longAddress : i + " Main St";
+            String email = "patient" + i + "@example.com";
+            text.append("Pat,Smith,\"").append(address).append("\",Detroit,MI,48201,555-0100,")
+                    .append(email).append(",2021-01-01,0000-00-00\n");
+            expected.add(new Patient("Pat", "Smith", address, "Detroit", "MI", "48201", "555-0100", email,
+                    "2021-01-01", "0000-00-00").toDataString());
+        }
+        Path file = directory.resolve("patients.txt");
+        Files.write(file, text.toString().getBytes(StandardCharsets.UTF_8));
+
+        for (int threads : new int[]{1, 4}) {
+            List<String> loaded = new ArrayList<>();
+            for (Patient patient : new PatientFileLoader(threads).load(file))
+                loaded.add(patient.toDataString());
+            assertEquals(expected, loaded, threads + " threads");
+        }
+    }
+}
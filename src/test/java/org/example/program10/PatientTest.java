@@ -0,0 +1,51 @@
+package org.example.program10;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Tests for the compact fields of Patient.
+ */
+class PatientTest {
+
+    /**
+     * Creates a patient with the given state and zip code and otherwise fixed details.
+     *
+     * @param state The state.
+     * @param zip   The zip code.
+     * @return The patient.
+     */
+    private static Patient patient(String state, String zip) {
+        return new Patient("Ada", "Lovelace", "1 Main St", "Detroit", state, zip, "555-0100", "ada@x.com", "2021-01-01", "0000-00-00");
+    }
+
+    @Test
+    void zipCodesRoundTrip() {
+        assertEquals("48201", patient("MI", "48201").getZip());
+        assertEquals(48201, patient("MI", "48201").getZipCode());
+        assertEquals("00501", patient("NY", "00501").getZip());
+        assertEquals(501, patient("NY", "00501").getZipCode());
+
+        for (String irregular : new String[]{"4820", "482011", "48a01", "", "48-01", "48201-1234"}) {
+            assertEquals(irregular, patient("MI", irregular).getZip());
+            assertEquals(-1, patient("MI", irregular).getZipCode());
+        }
+        assertNull(patient("MI", null).getZip());
+        assertEquals(-1, patient("MI", null).getZipCode());
+    }
+
+    @Test
+    void statesRoundTrip() {
+        for (String state : new String[]{"AL", "MI", "PR", "mi", "Michigan", ""})
+            assertEquals(state, patient(state, "48201").getState());
+        assertNull(patient(null, "48201").getState());
+    }
+
+    @Test
+    void dataStringIsUnchangedForPlainFields() {
+        assertEquals("Ada,Lovelace,1 Main St,Detroit,MI,48201,555-0100,ada@x.com,2021-01-01,0000-00-00",
+                patient("MI", "48201").toDataString());
+    }
+}
@@ -0,0 +1,53 @@
+package org.example.program10;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Tests for StringInterner.
+ */
+class StringInternerTest {
+
+    @Test
+    void repeatedValuesShareOneInstanceAndCountSavedBytes() {
+        StringInterner cities = new StringInterner("city", 2);
+        String first = cities.intern(new String("Detroit"));
+        assertSame(first, cities.intern(new String("Detroit")));
+        assertSame(first, cities.intern(new String("Detroit")));
+        // A String of 7 Latin-1 characters takes 24 bytes for the object and 24 for its array
+        assertEquals(2 * 48, cities.bytesSaved());
+
+        cities.intern("Flint");
+        String third = new String("Lansing");
+        assertSame(third, cities.intern(third));
+        assertEquals(2, cities.cardinality());
+    }
+
+    @Test
+    void mergeAddsCountsAndDistinctValues() {
+        StringInterner first = new StringInterner("city", 16);
+        StringInterner second = new StringInterner("city", 16);
+        first.intern("Detroit");
+        first.intern(new String("Detroit"));
+        second.intern("Flint");
+        second.intern(new String("Flint"));
+
+        first.merge(second);
+        assertEquals(2, first.cardinality());
+        assertEquals(48 + 48, first.bytesSaved());
+        assertEquals("city: 2 distinct in 4 values, 2 shared, 0.0 MB saved", first.report());
+
+        // A value the other dictionary also holds is shared through canonical and counted once per dictionary
+        StringInterner third = new StringInterner("city", 16);
+        String flint = third.intern(new String("Flint"));
+        third.intern(new String("Flint"));
+        first.merge(third);
+        assertEquals(2, first.cardinality());
+        assertEquals(4 * 48, first.bytesSaved());
+        assertSame(first.canonical("Flint"), first.canonical(flint));
+        assertSame(first.canonical(new String("Flint")), first.canonical("Flint"));
+        assertEquals("Lansing", first.canonical("Lansing"));
+    }
+}
@@ -0,0 +1,81 @@
+package org.example.program10;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * A lookup-latency benchmark of PatientBST.searchPatient under a Zipfian workload, where the k-th most looked-up
+ * patient is looked up with a probability proportional to 1/k^skew, comparing the splay tree of the ADAPTIVE mode
+ * with the plain search descent of the PLAIN and BALANCED modes.
+ * It only runs when asked for, with
+ * {@code mvn test -Dbenchmark=true -Dtest=ZipfLookupBenchmarkTest}, and prints the mean nanoseconds per lookup.
+ * The skew can be set with -Dbenchmark.skew, and the number of patients with -Dbenchmark.records.
+ */
+@EnabledIfSystemProperty(named = "benchmark", matches = "true")
+class ZipfLookupBenchmarkTest {
+
+    /**
+     * The number of timed lookups per round.
+     */
+    private static final int LOOKUPS = 2_000_000;
+
+    /**
+     * The number of timed rounds of each mode.
+     */
+    private static final int ROUNDS = 3;
+
+    @Test
+    void adaptiveAgainstPlainSearch() {
+        int records = Integer.getInteger("benchmark.records", 1_000_000);
+        double skew = Double.parseDouble(System.getProperty("benchmark.skew", "1.0"));
+        Random random = new Random(19);
+
+        List<Patient> sorted = new ArrayList<>(records);
+        for (int i = 0; i < records; i++)
+            sorted.add(PatientBSTTest.patient("p" + (100_000_000 + i) + "@x.com"));
+
+        // The popularity ranks are spread over the emails at random, so hot patients are not neighbours
+        double[] cumulative = new double[records];
+        double sum = 0;
+        for (int rank = 0; rank < records; rank++) {
+            sum += 1 / Math.pow(rank + 1, skew);
+            cumulative[rank] = sum;
+        }
+        List<Integer> byRank = new ArrayList<>(records);
+        for (int i = 0; i < records; i++)
+            byRank.add(i);
+        Collections.shuffle(byRank, random);
+        String[] workload = new String[LOOKUPS];
+        for (int i = 0; i < LOOKUPS; i++) {
+            int rank = Arrays.binarySearch(cumulative, random.nextDouble() * sum);
+            rank = Math.min(rank < 0 ? -rank - 1 : rank, records - 1);
+            workload[i] = sorted.get(byRank.get(rank)).getEmail();
+        }
+
+        for (PatientBST.TreeType type : PatientBST.TreeType.values()) {
+            PatientBST patients = new PatientBST(type);
+            patients.loadPatients(sorted);
+            for (int round = 0; round < ROUNDS; round++) {
+                long start = System.nanoTime();
+                int found = 0;
+                for (String email : workload) {
+                    if (patients.searchPatient(email) != null)
+                        found++;
+                }
+                long end = System.nanoTime();
+
+                assertEquals(LOOKUPS, found);
+                System.out.printf("Round %d, %s, skew %.2f on %,d patients: %d ns per lookup%n", round + 1, type, skew, records,
+                        (end - start) / LOOKUPS);
+            }
+        }
+    }
+}